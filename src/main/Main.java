@@ -2,7 +2,9 @@ package main;
 
 import model.Song;
 import parser.AbcParser;
+import player.AudioRenderer;
 import player.MidiPlayer;
+import player.MidiRenderer;
 
 import javax.sound.midi.InvalidMidiDataException;
 import javax.sound.midi.MidiUnavailableException;
@@ -16,15 +18,29 @@ public class Main {
 	/**
 	 * Plays the input file using Java MIDI API and displays
 	 * header information to the standard output stream.
+	 * If an output file is given the song is written to it as a midi file instead of being played, or as audio if its
+	 * name ends with ".wav".
 	 * 
 	 * <p>Your code <b>should not</b> exit the application abnormally using
 	 * System.exit()</p>
 	 * 
-	 * @param args the name of input abc file
+	 * @param args the name of input abc file, optionally followed by the name of a midi file to write
 	 */
     public static void main(String[] args) throws InvalidMidiDataException, MidiUnavailableException, IOException {
 		final AbcParser parser = new AbcParser();
 		final Song song = parser.parse(args[0]);
+		if (args.length > 1 && args[1].endsWith(".wav")) {
+			try (AudioRenderer renderer = new AudioRenderer(1)) {
+				renderer.render(song, args[1]);
+			}
+			System.out.println("Wrote " + args[1]);
+			return;
+		}
+		if (args.length > 1) {
+			new MidiRenderer().render(song, args[1]);
+			System.out.println("Wrote " + args[1]);
+			return;
+		}
 		final MidiPlayer player = new MidiPlayer();
 		player.play(song);
 	}
@@ -0,0 +1,553 @@
+package model;
+
+import model.entities.AlternateEnding;
+import model.entities.Chord;
+import model.entities.MeasureEntity;
+import model.entities.Note;
+import model.entities.Rest;
+import model.entities.Tuplet;
+import model.enums.Accidental;
+import model.enums.BarLineEnum;
+import model.enums.NoteEnum;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * A voice kept in columns of primitives rather than as measure and entity objects, for holding many songs in memory at
+ * once.  Each measure is a row of the measure columns and each note, rest, chord, and tuplet a row of the entity
+ * columns, in the order they are written.  A chord or tuplet is followed by the rows of what it contains, so its
+ * contents are the range of rows after it.
+ *
+ * The measures and entities handed out are views over the columns, made when asked for, so anything written against
+ * Measure and MeasureEntity works unchanged.  Like the rest of the model they can't be changed.  Two views of the same
+ * measure are equal, but a view is never the same object twice.  The play order is worked out the first time it is
+ * asked for and kept, along with the views it holds, since the columns never change.
+ */
+public class CompactVoice extends Voice {
+
+    // The kinds of entity rows.  Anything else, such as a broken rhythm, is kept as it is.
+    private static final byte NOTE = 0;
+    private static final byte REST = 1;
+    private static final byte CHORD = 2;
+    private static final byte TUPLET = 3;
+    private static final byte OTHER = 4;
+
+    private static final BarLineEnum[] BAR_LINES = BarLineEnum.values();
+    private static final NoteEnum[] NOTES = NoteEnum.values();
+    private static final Accidental[] ACCIDENTALS = Accidental.values();
+
+    // Stored for measures that don't start an alternate ending.
+    private static final int NO_ENDING = Integer.MIN_VALUE;
+
+    // The number of measures in the voice.  The rows may also hold the empty measure linked after a closing bar line.
+    private final int measureCount;
+    private final int rowCount;
+
+    // The measure columns, indexed by row.  Bar lines are stored as their ordinal plus one, or 0 for none.
+    private final int[] indexes;
+    private final byte[] startLines;
+    private final byte[] endLines;
+    private final int[] alternateEndings;
+    private final int[] settingIds;
+
+    // The distinct settings of the measures, which are the same for long runs of them.
+    private final Settings[] settings;
+
+    // The first entity row of each measure, with one more for the end of the last.
+    private final int[] entityStarts;
+
+    // The entity columns, indexed by row.  Accidentals are stored as their ordinal plus one, or 0 for none.
+    private final byte[] kinds;
+    private final byte[] notes;
+    private final byte[] octaves;
+    private final byte[] accidentals;
+    // The number of rows an entity takes, including those of what it contains.
+    private final short[] sizes;
+
+    // Duration multipliers as numerator over denominator.  A denominator of 0 means the numerator is an index into the
+    // multipliers too large to store that way, kept as packed Fractions.
+    private final short[] numerators;
+    private final short[] denominators;
+    private final long[] largeMultipliers;
+
+    // The rows of entities kept as they are, in order, and the entities.
+    private final int[] otherRows;
+    private final MeasureEntity[] others;
+
+    private final List<Measure> measures = new MeasureList();
+
+    // The order the measures are played in, or null until it is first asked for.
+    private volatile PlayOrder playOrder;
+
+    /**
+     * Copies the voice into columns.  The voice is left as it is.
+     *
+     * @param voice the voice to copy, with its measures linked one after another.
+     */
+    public CompactVoice(final Voice voice) {
+        final List<Measure> rows = new ArrayList<>();
+        if (null != voice.getMeasures()) {
+            rows.addAll(voice.getMeasures());
+        }
+        measureCount = rows.size();
+        if (!rows.isEmpty() && null != rows.get(measureCount - 1).getNextMeasure()) {
+            rows.add(rows.get(measureCount - 1).getNextMeasure());
+        }
+        rowCount = rows.size();
+
+        indexes = new int[rowCount];
+        startLines = new byte[rowCount];
+        endLines = new byte[rowCount];
+        alternateEndings = new int[rowCount];
+        settingIds = new int[rowCount];
+        entityStarts = new int[rowCount + 1];
+        final Map<Settings, Integer> settingsIds = new HashMap<>();
+        int entityCount = 0;
+        for (int row = 0; row < rowCount; row++) {
+            final Measure measure = rows.get(row);
+            final Measure previous = 0 == row ? null : rows.get(row - 1);
+            final Measure next = row + 1 == rowCount ? null : rows.get(row + 1);
+            if (measure.getPreviousMeasure() != previous || measure.getNextMeasure() != next) {
+                throw new IllegalArgumentException("Measure " + measure.getIndex() + " isn't linked to the measures next to it.");
+            }
+            indexes[row] = measure.getIndex();
+            startLines[row] = toByte(measure.getStartLine());
+            endLines[row] = toByte(measure.getEndLine());
+            alternateEndings[row] = null == measure.getAlternateEnding() ? NO_ENDING : measure.getAlternateEnding().getEndingIndex();
+            final Settings setting = new Settings(measure);
+            Integer id = settingsIds.get(setting);
+            if (null == id) {
+                id = settingsIds.size();
+                settingsIds.put(setting, id);
+            }
+            settingIds[row] = id;
+            entityStarts[row] = entityCount;
+            entityCount += countRows(measure.getEntities());
+        }
+        entityStarts[rowCount] = entityCount;
+        settings = new Settings[settingsIds.size()];
+        for (Map.Entry<Settings, Integer> entry : settingsIds.entrySet()) {
+            settings[entry.getValue()] = entry.getKey();
+        }
+
+        kinds = new byte[entityCount];
+        notes = new byte[entityCount];
+        octaves = new byte[entityCount];
+        accidentals = new byte[entityCount];
+        sizes = new short[entityCount];
+        numerators = new short[entityCount];
+        denominators = new short[entityCount];
+        final Columns columns = new Columns();
+        for (int row = 0; row < rowCount; row++) {
+            columns.addAll(rows.get(row).getEntities(), entityStarts[row]);
+        }
+        largeMultipliers = columns.getLargeMultipliers();
+        otherRows = columns.getOtherRows();
+        others = columns.getOthers();
+    }
+
+    /**
+     * Copies the song with every voice replaced by a compact copy.  The song is left as it is.
+     *
+     * @param song the song to compact.
+     * @return the compacted song.
+     */
+    public static Song compact(final Song song) {
+        final Song.Builder builder = new Song.Builder(song);
+        song.getVoices().forEach((name, voice) -> builder.withVoice(name, voice instanceof CompactVoice ? voice : new CompactVoice(voice)));
+        return builder.build();
+    }
+
+    @Override
+    public List<Measure> getMeasures() {
+        return measures;
+    }
+
+    @Override
+    public PlayOrder getPlayOrder() {
+        PlayOrder order = playOrder;
+        if (null == order) {
+            // Threads asking at once may each work it out, but they all get the same order.
+            order = new PlayOrder(this);
+            playOrder = order;
+        }
+        return order;
+    }
+
+    private static int countRows(final List<? extends MeasureEntity> entities) {
+        int count = 0;
+        if (null != entities) {
+            for (MeasureEntity entity : entities) {
+                count++;
+                if (entity instanceof Chord) {
+                    count += countRows(((Chord) entity).getNotes());
+                } else if (entity instanceof Tuplet) {
+                    count += countRows(((Tuplet) entity).getEntities());
+                }
+            }
+        }
+        return count;
+    }
+
+    private static byte toByte(final Enum<?> value) {
+        return (byte) (null == value ? 0 : value.ordinal() + 1);
+    }
+
+    private long getMultiplier(final int row) {
+        return 0 == denominators[row] ? largeMultipliers[numerators[row]] : Fraction.of(numerators[row], denominators[row]);
+    }
+
+    private MeasureEntity getEntity(final int row) {
+        switch (kinds[row]) {
+            case NOTE:
+                return new NoteView(row);
+            case REST:
+                return new RestView(row);
+            case CHORD:
+                return new ChordView(row);
+            case TUPLET:
+                return new TupletView(row);
+            default:
+                return others[Arrays.binarySearch(otherRows, row)];
+        }
+    }
+
+    // Fills the entity columns.
+    private class Columns {
+
+        private final List<Long> largeMultipliers = new ArrayList<>();
+        private final List<Integer> otherRows = new ArrayList<>();
+        private final List<MeasureEntity> others = new ArrayList<>();
+
+        // Adds the entities from the row given, returning the row after them.
+        private int addAll(final List<? extends MeasureEntity> entities, int row) {
+            if (null != entities) {
+                for (MeasureEntity entity : entities) {
+                    row = add(entity, row);
+                }
+            }
+            return row;
+        }
+
+        private int add(final MeasureEntity entity, final int row) {
+            int end = row + 1;
+            if (entity instanceof Note) {
+                final Note note = (Note) entity;
+                if (null == note.getNoteEnum() || note.getOctave() < Byte.MIN_VALUE || note.getOctave() > Byte.MAX_VALUE) {
+                    throw new IllegalArgumentException("Note can't be stored: " + note.getNoteEnum() + " " + note.getOctave());
+                }
+                kinds[row] = NOTE;
+                notes[row] = (byte) note.getNoteEnum().ordinal();
+                octaves[row] = (byte) note.getOctave();
+                accidentals[row] = toByte(note.getAccidentalOverride());
+            } else if (entity instanceof Rest) {
+                kinds[row] = REST;
+            } else if (entity instanceof Chord) {
+                kinds[row] = CHORD;
+                end = addAll(((Chord) entity).getNotes(), end);
+            } else if (entity instanceof Tuplet) {
+                kinds[row] = TUPLET;
+                end = addAll(((Tuplet) entity).getEntities(), end);
+            } else {
+                kinds[row] = OTHER;
+                otherRows.add(row);
+                others.add(entity);
+                return end;
+            }
+            if (end - row > Short.MAX_VALUE) {
+                throw new IllegalArgumentException("Too many notes in a chord or tuplet: " + (end - row - 1));
+            }
+            sizes[row] = (short) (end - row);
+            setMultiplier(row, entity.getMultiplier());
+            return end;
+        }
+
+        private void setMultiplier(final int row, final long multiplier) {
+            final int numerator = Fraction.getNumerator(multiplier);
+            final int denominator = Fraction.getDenominator(multiplier);
+            if (numerator >= Short.MIN_VALUE && numerator <= Short.MAX_VALUE && denominator <= Short.MAX_VALUE) {
+                numerators[row] = (short) numerator;
+                denominators[row] = (short) denominator;
+                return;
+            }
+            if (largeMultipliers.size() > Short.MAX_VALUE) {
+                throw new IllegalArgumentException("Too many large durations: " + largeMultipliers.size());
+            }
+            numerators[row] = (short) largeMultipliers.size();
+            largeMultipliers.add(multiplier);
+        }
+
+        private long[] getLargeMultipliers() {
+            return largeMultipliers.stream().mapToLong(Long::longValue).toArray();
+        }
+
+        private int[] getOtherRows() {
+            return otherRows.stream().mapToInt(Integer::intValue).toArray();
+        }
+
+        private MeasureEntity[] getOthers() {
+            return others.toArray(new MeasureEntity[others.size()]);
+        }
+    }
+
+    // The tempo, key, meter, note duration, and context of a measure, compared by identity so each measure is given
+    // back exactly the objects it had.
+    private static class Settings {
+
+        private final Integer tempo;
+        private final MeasureKey key;
+        private final Meter meter;
+        private final long noteLength;
+        private final MeasureContext context;
+        private final String voiceName;
+
+        private Settings(final Measure measure) {
+            tempo = measure.getTempo();
+            key = measure.getKey();
+            meter = measure.getMeter();
+            noteLength = measure.getNoteLength();
+            context = measure.getContext();
+            voiceName = measure.getVoiceName();
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof Settings)) {
+                return false;
+            }
+            final Settings other = (Settings) obj;
+            return tempo == other.tempo && key == other.key && meter == other.meter &&
+                    noteLength == other.noteLength && context == other.context && voiceName == other.voiceName;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = System.identityHashCode(tempo);
+            hash = 31 * hash + System.identityHashCode(key);
+            hash = 31 * hash + System.identityHashCode(meter);
+            hash = 31 * hash + Long.hashCode(noteLength);
+            hash = 31 * hash + System.identityHashCode(context);
+            return 31 * hash + System.identityHashCode(voiceName);
+        }
+    }
+
+    private class MeasureList extends AbstractList<Measure> implements RandomAccess {
+
+        @Override
+        public Measure get(final int index) {
+            if (index < 0 || index >= measureCount) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + measureCount);
+            }
+            return new MeasureView(index);
+        }
+
+        @Override
+        public int size() {
+            return measureCount;
+        }
+    }
+
+    // The entities in a range of rows that aren't contained in another entity of the range.
+    private class EntityList<T extends MeasureEntity> extends AbstractList<T> implements RandomAccess {
+
+        private final int[] rows;
+
+        private EntityList(final int from, final int to) {
+            int count = 0;
+            for (int row = from; row < to; row += getSize(row)) {
+                count++;
+            }
+            rows = new int[count];
+            for (int row = from, i = 0; row < to; row += getSize(row)) {
+                rows[i++] = row;
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T get(final int index) {
+            return (T) getEntity(rows[index]);
+        }
+
+        @Override
+        public int size() {
+            return rows.length;
+        }
+
+        private int getSize(final int row) {
+            return OTHER == kinds[row] ? 1 : sizes[row];
+        }
+    }
+
+    private class MeasureView extends Measure {
+
+        private final int row;
+
+        private MeasureView(final int row) {
+            this.row = row;
+        }
+
+        @Override
+        public Integer getIndex() {
+            return indexes[row];
+        }
+        @Override
+        public String getVoiceName() {
+            return settings[settingIds[row]].voiceName;
+        }
+        @Override
+        public long getNoteLength() {
+            return settings[settingIds[row]].noteLength;
+        }
+        @Override
+        public Meter getMeter() {
+            return settings[settingIds[row]].meter;
+        }
+        @Override
+        public Integer getTempo() {
+            return settings[settingIds[row]].tempo;
+        }
+        @Override
+        public MeasureKey getKey() {
+            return settings[settingIds[row]].key;
+        }
+        @Override
+        public MeasureContext getContext() {
+            return settings[settingIds[row]].context;
+        }
+        @Override
+        public BarLineEnum getStartLine() {
+            return 0 == startLines[row] ? null : BAR_LINES[startLines[row] - 1];
+        }
+        @Override
+        public BarLineEnum getEndLine() {
+            return 0 == endLines[row] ? null : BAR_LINES[endLines[row] - 1];
+        }
+        @Override
+        public AlternateEnding getAlternateEnding() {
+            return NO_ENDING == alternateEndings[row] ? null : new AlternateEndingView(alternateEndings[row]);
+        }
+        @Override
+        public Measure getPreviousMeasure() {
+            return 0 == row ? null : new MeasureView(row - 1);
+        }
+        @Override
+        public Measure getNextMeasure() {
+            return row + 1 == rowCount ? null : new MeasureView(row + 1);
+        }
+        @Override
+        public List<MeasureEntity> getEntities() {
+            return new EntityList<>(entityStarts[row], entityStarts[row + 1]);
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            return obj instanceof MeasureView && ((MeasureView) obj).getVoice() == CompactVoice.this && ((MeasureView) obj).row == row;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(CompactVoice.this) + row;
+        }
+
+        private CompactVoice getVoice() {
+            return CompactVoice.this;
+        }
+    }
+
+    private static class AlternateEndingView extends AlternateEnding {
+
+        private final int endingIndex;
+
+        private AlternateEndingView(final int endingIndex) {
+            this.endingIndex = endingIndex;
+        }
+
+        @Override
+        public Integer getEndingIndex() {
+            return endingIndex;
+        }
+    }
+
+    private class NoteView extends Note {
+
+        private final int row;
+
+        private NoteView(final int row) {
+            this.row = row;
+        }
+
+        @Override
+        public NoteEnum getNoteEnum() {
+            return NOTES[notes[row]];
+        }
+        @Override
+        public int getOctave() {
+            return octaves[row];
+        }
+        @Override
+        public Accidental getAccidentalOverride() {
+            return 0 == accidentals[row] ? null : ACCIDENTALS[accidentals[row] - 1];
+        }
+        @Override
+        public long getMultiplier() {
+            return CompactVoice.this.getMultiplier(row);
+        }
+    }
+
+    private class RestView extends Rest {
+
+        private final int row;
+
+        private RestView(final int row) {
+            this.row = row;
+        }
+
+        @Override
+        public long getMultiplier() {
+            return CompactVoice.this.getMultiplier(row);
+        }
+    }
+
+    private class ChordView extends Chord {
+
+        private final int row;
+
+        private ChordView(final int row) {
+            this.row = row;
+        }
+
+        @Override
+        public List<Note> getNotes() {
+            return new EntityList<>(row + 1, row + sizes[row]);
+        }
+        @Override
+        public long getMultiplier() {
+            return CompactVoice.this.getMultiplier(row);
+        }
+    }
+
+    private class TupletView extends Tuplet {
+
+        private final int row;
+
+        private TupletView(final int row) {
+            this.row = row;
+        }
+
+        @Override
+        public List<MeasureEntity> getEntities() {
+            return new EntityList<>(row + 1, row + sizes[row]);
+        }
+        @Override
+        public long getMultiplier() {
+            return CompactVoice.this.getMultiplier(row);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package model;
+
+/**
+ * Exact fractions packed into a long, the numerator in the high 32 bits and the denominator in the low 32 bits, so
+ * durations can be stored and multiplied without boxing or rounding.  Fractions are always kept in lowest terms with a
+ * positive denominator, so two equal fractions pack into the same long.
+ */
+public class Fraction {
+
+    // Stands for a fraction that hasn't been set.  Nothing else packs to it, since no fraction has a denominator of 0.
+    public static final long NONE = 0;
+
+    public static final long ONE = of(1, 1);
+
+    // The largest denominator tried when turning a double into a fraction.
+    private static final int MAX_DENOMINATOR = 1 << 16;
+
+    private Fraction() {
+    }
+
+    /**
+     * @param numerator the numerator.
+     * @param denominator the denominator, which can't be 0.
+     * @return the fraction in lowest terms, packed into a long.
+     */
+    public static long of(long numerator, long denominator) {
+        if (0 == denominator) {
+            throw new IllegalArgumentException("Denominator can't be 0");
+        }
+        if (denominator < 0) {
+            numerator = -numerator;
+            denominator = -denominator;
+        }
+        final long divisor = gcd(Math.abs(numerator), denominator);
+        numerator /= divisor;
+        denominator /= divisor;
+        if (numerator < Integer.MIN_VALUE || numerator > Integer.MAX_VALUE || denominator > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Fraction is too large: " + numerator + "/" + denominator);
+        }
+        return numerator << 32 | denominator;
+    }
+
+    public static int getNumerator(final long fraction) {
+        return (int) (fraction >> 32);
+    }
+
+    public static int getDenominator(final long fraction) {
+        return (int) fraction;
+    }
+
+    public static long multiply(final long first, final long second) {
+        return of((long) getNumerator(first) * getNumerator(second), (long) getDenominator(first) * getDenominator(second));
+    }
+
+    public static long divide(final long fraction, final int divisor) {
+        return of(getNumerator(fraction), (long) getDenominator(fraction) * divisor);
+    }
+
+    public static double toDouble(final long fraction) {
+        return (double) getNumerator(fraction) / getDenominator(fraction);
+    }
+
+    /**
+     * Finds the fraction with the smallest denominator that is exactly the double.  For callers that still work in
+     * doubles.
+     *
+     * @param value the value to convert.
+     * @return the fraction, packed into a long.
+     */
+    public static long valueOf(final double value) {
+        for (int denominator = 1; denominator <= MAX_DENOMINATOR; denominator++) {
+            final double numerator = Math.rint(value * denominator);
+            if (Math.abs(numerator) <= Integer.MAX_VALUE && numerator / denominator == value) {
+                return of((long) numerator, denominator);
+            }
+        }
+        throw new IllegalArgumentException(value + " is not a fraction");
+    }
+
+    public static String toString(final long fraction) {
+        return getNumerator(fraction) + "/" + getDenominator(fraction);
+    }
+
+    public static long gcd(long first, long second) {
+        while (0 != second) {
+            final long remainder = first % second;
+            first = second;
+            second = remainder;
+        }
+        return first;
+    }
+
+    public static long lcm(final long first, final long second) {
+        return first / gcd(first, second) * second;
+    }
+}
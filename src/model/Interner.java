@@ -0,0 +1,51 @@
+package model;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Hands out one shared instance for each distinct value it is given, so the notes, chords, meters, and measure bodies
+ * repeated throughout a collection of songs are only held once.  This is only safe because the model can't be changed
+ * once built.  Values that went through the same interner are equal exactly when they are the same instance.
+ *
+ * An interner keeps every distinct value it has seen for as long as it is kept itself, so use one for each corpus held
+ * in memory.  It can be shared by any number of threads parsing at once.
+ */
+public class Interner {
+
+    // Hands back whatever it is given, for parsers that don't share instances.
+    public static final Interner NONE = new Interner() {
+        @Override
+        public <T> T intern(final T value) {
+            return value;
+        }
+    };
+
+    // Every distinct value seen, mapped to itself.
+    private final ConcurrentMap<Object, Object> values = new ConcurrentHashMap<>();
+
+    /**
+     * @param value an immutable value, such as an entity, a meter, or an unmodifiable list of entities.
+     * @return the first instance interned that is equal to the value, or the value itself if there is none.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T intern(final T value) {
+        if (null == value) {
+            return null;
+        }
+        // Most values have been seen before, and looking them up doesn't lock anything.
+        final Object existing = values.get(value);
+        if (null != existing) {
+            return (T) existing;
+        }
+        final Object raced = values.putIfAbsent(value, value);
+        return null == raced ? value : (T) raced;
+    }
+
+    /**
+     * @return the number of distinct values held.
+     */
+    public int size() {
+        return values.size();
+    }
+}
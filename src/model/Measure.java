@@ -4,242 +4,310 @@ import model.entities.AlternateEnding;
 import model.entities.MeasureEntity;
 import model.enums.BarLineEnum;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
  * A representation of a single measure in the song.  A measure should know everything it needs to:
  *  - 1. Play all the notes at the appropriate pitch and tempo.
  *  - 2. Transition to the next valid measure.
+ *
+ * Measures can't be changed once built.  They are built a whole voice at a time by Voice.Builder, which links each one
+ * to the measures before and after it.
  */
 public class Measure {
 
     // Where the measure is in the song.
-    private Integer index;
+    private final Integer index;
 
     // The voice name that this measure belongs to.
-    private String voiceName;
+    private final String voiceName;
 
-    // The default note duration.  Used when determining the actual duration of parsed notes.
-    // A value of 1 is defined as a quarter note. Default is an eighth note, or 0.0125.
-    private Double noteDuration;
+    // The default note duration as a packed Fraction of a whole note, or Fraction.NONE when not set here.  Used when
+    // determining the actual duration of parsed notes.  Default is an eighth note, or 1/8.
+    private final long noteLength;
 
     // Defines what the sum of all note durations in a bar should be. Default is 4/4.
-    private Meter meter;
+    private final Meter meter;
 
     // Defines the number of default length notes per minute. Default is 100.
-    private Integer tempo;
+    private final Integer tempo;
 
     // Defines which notes are should be flat or sharp.
-    private MeasureKey key;
+    private final MeasureKey key;
+
+    // The tempo, key, meter, and note duration in effect for this measure, whether set here or inherited.  Shared with
+    // the measures around it until one of those settings changes.
+    private final MeasureContext context;
 
 	// Describes the bar line before the measure.
-	private BarLineEnum startLine;
+	private final BarLineEnum startLine;
 
     // Describes the bar line after the measure.
-    private BarLineEnum endLine;
+    private final BarLineEnum endLine;
 
     // Denotes whether this measure is the start of an alternate ending.
-    private AlternateEnding alternateEnding;
-
-    // A link to the measure directly preceding this one.
-    private Measure previousMeasure;
+    private final AlternateEnding alternateEnding;
 
-    // A link to the measure directly after this one.
-    private Measure nextMeasure;
+    // The measures of the voice in the order they are linked, shared by all of them, and where this one is.  The
+    // previous and next measures are looked up here, since neither end of a link can be set after the other is built.
+    private final List<Measure> linked;
+    private final int position;
 
 	// The list of notes, rests, tuplets, and chords contained in the measure.
-	private List<MeasureEntity> entities;
+	private final List<MeasureEntity> entities;
+
+    // For views that supply their own values.
+    protected Measure() {
+        this.index = null;
+        this.voiceName = null;
+        this.noteLength = Fraction.NONE;
+        this.meter = null;
+        this.tempo = null;
+        this.key = null;
+        this.context = null;
+        this.startLine = null;
+        this.endLine = null;
+        this.alternateEnding = null;
+        this.linked = Collections.emptyList();
+        this.position = 0;
+        this.entities = Collections.emptyList();
+    }
+
+    private Measure(final Builder builder, final List<Measure> linked, final int position) {
+        this.index = builder.index;
+        this.voiceName = builder.voiceName;
+        this.noteLength = builder.noteLength;
+        this.meter = builder.meter;
+        this.tempo = builder.tempo;
+        this.key = builder.key;
+        this.context = builder.context;
+        this.startLine = builder.startLine;
+        this.endLine = builder.endLine;
+        this.alternateEnding = builder.alternateEnding;
+        this.linked = linked;
+        this.position = position;
+        // Measures that play the same share one list of entities when an interner is given.
+        this.entities = builder.interner.intern(Collections.unmodifiableList(new ArrayList<>(builder.entities)));
+    }
 
     public Integer getIndex() {
         return index;
     }
-    public void setIndex(Integer index) {
-        this.index = index;
-    }
 
     public String getVoiceName() {
         return voiceName;
     }
-    public void setVoiceName(String voiceName) {
-        this.voiceName = voiceName;
+
+    public long getNoteLength() {
+        return noteLength;
     }
 
+    // The default note duration as a double, for callers that don't need it exact.
     public Double getNoteDuration() {
-        return noteDuration;
-    }
-    public void setNoteDuration(Double noteDuration) {
-        this.noteDuration = noteDuration;
+        return Fraction.NONE == getNoteLength() ? null : Fraction.toDouble(getNoteLength());
     }
 
     public Meter getMeter() {
         return meter;
     }
-    public void setMeter(Meter meter) {
-        this.meter = meter;
-    }
 
     public Integer getTempo() {
         return tempo;
     }
-    public void setTempo(Integer tempo) {
-        this.tempo = tempo;
-    }
 
     public MeasureKey getKey() {
         return key;
     }
-    public void setKey(MeasureKey key) {
-        this.key = key;
+
+    public MeasureContext getContext() {
+        return context;
     }
 
     public BarLineEnum getStartLine() {
         return startLine;
     }
-    public void setStartLine(BarLineEnum startLine) {
-        this.startLine = startLine;
-    }
 
     public BarLineEnum getEndLine() {
         return endLine;
     }
-    public void setEndLine(BarLineEnum endLine) {
-        this.endLine = endLine;
-    }
 
     public AlternateEnding getAlternateEnding() {
         return alternateEnding;
     }
-    public void setAlternateEnding(AlternateEnding alternateEnding) {
-        this.alternateEnding = alternateEnding;
-    }
 
     public Measure getPreviousMeasure() {
-        return previousMeasure;
-    }
-    public void setPreviousMeasure(Measure previousMeasure) {
-        this.previousMeasure = previousMeasure;
+        return 0 == position ? null : linked.get(position - 1);
     }
 
     public Measure getNextMeasure() {
-        return nextMeasure;
-    }
-    public void setNextMeasure(Measure nextMeasure) {
-        this.nextMeasure = nextMeasure;
+        return position + 1 == linked.size() ? null : linked.get(position + 1);
     }
 
     public List<MeasureEntity> getEntities() {
         return entities;
     }
-    public void setEntities(List<MeasureEntity> entities) {
-        this.entities = entities;
-    }
 
-    public Measure withIndex(final Integer index) {
-        setIndex(index);
-        return this;
-    }
-    public Measure withVoiceName(final String voiceName) {
-        setVoiceName(voiceName);
-        return this;
-    }
-    public Measure withNoteDuration(final Double noteDuration) {
-        setNoteDuration(noteDuration);
-        return this;
-    }
-    public Measure withMeter(final Meter meter) {
-        setMeter(meter);
-        return this;
-    }
-    public Measure withTempo(final Integer tempo) {
-        setTempo(tempo);
-        return this;
-    }
-    public Measure withKey(final MeasureKey key) {
-        setKey(key);
-        return this;
-    }
-    public Measure withStartLine(final BarLineEnum startLine) {
-        setStartLine(startLine);
-        return this;
-    }
-    public Measure withEndLine(final BarLineEnum endLine) {
-        setEndLine(endLine);
-        return this;
-    }
-    public Measure withAlternateEnding(final AlternateEnding alternateEnding) {
-        setAlternateEnding(alternateEnding);
-        return this;
-    }
-    public Measure withPreviousMeasure(final Measure previousMeasure) {
-        setPreviousMeasure(previousMeasure);
-        return this;
-    }
-    public Measure withNextMeasure(final Measure nextMeasure) {
-        setNextMeasure(nextMeasure);
-        return this;
-    }
-    public Measure withEntities(final List<MeasureEntity> entities) {
-        setEntities(entities);
-        return this;
-    }
-
-    // Follow the chain back to the last time the tempo was set.
+    // The last tempo set, taken from the context when there is one.  Otherwise follow the chain back to it.
     public Integer getLastTempo() {
-        if (null != tempo) {
-            return tempo;
-        }
-        if (null == previousMeasure) {
-            throw new IllegalArgumentException("Tempo was never set");
+        for (Measure measure = this; null != measure; measure = measure.getPreviousMeasure()) {
+            if (null != measure.getTempo()) {
+                return measure.getTempo();
+            }
+            if (null != measure.getContext()) {
+                return measure.getContext().getTempo();
+            }
         }
-        return previousMeasure.getLastTempo();
+        throw new IllegalArgumentException("Tempo was never set");
     }
-    // Follow the chain back to the last time the key was set.
+    // The last key set, taken from the context when there is one.  Otherwise follow the chain back to it.
     public MeasureKey getLastKey() {
-        if (null != key) {
-            return key;
+        for (Measure measure = this; null != measure; measure = measure.getPreviousMeasure()) {
+            if (null != measure.getKey()) {
+                return measure.getKey();
+            }
+            if (null != measure.getContext()) {
+                return measure.getContext().getKey();
+            }
         }
-        if (null == previousMeasure) {
-            throw new IllegalArgumentException("Key was never set");
-        }
-        return previousMeasure.getLastKey();
+        throw new IllegalArgumentException("Key was never set");
     }
-    // Follow the chain back to the last time the meter was set.
+    // The last meter set, taken from the context when there is one.  Otherwise follow the chain back to it.
     public Meter getLastMeter() {
-        if (null != meter) {
-            return meter;
+        for (Measure measure = this; null != measure; measure = measure.getPreviousMeasure()) {
+            if (null != measure.getMeter()) {
+                return measure.getMeter();
+            }
+            if (null != measure.getContext()) {
+                return measure.getContext().getMeter();
+            }
         }
-        if (null == previousMeasure) {
-            throw new IllegalArgumentException("Meter was never set");
+        throw new IllegalArgumentException("Meter was never set");
+    }
+    // The last note duration set, taken from the context when there is one.  Otherwise follow the chain back to it.
+    public long getLastNoteLength() {
+        for (Measure measure = this; null != measure; measure = measure.getPreviousMeasure()) {
+            if (Fraction.NONE != measure.getNoteLength()) {
+                return measure.getNoteLength();
+            }
+            if (null != measure.getContext()) {
+                return measure.getContext().getNoteLength();
+            }
         }
-        return previousMeasure.getLastMeter();
+        throw new IllegalArgumentException("Duration was never set");
     }
-    // Follow the chain back to the last time the Note Duration was set.
     public Double getLastNoteDuration() {
-        if (null != noteDuration) {
-            return noteDuration;
-        }
-        if (null == previousMeasure) {
-            throw new IllegalArgumentException("Duration was never set");
-        }
-        return previousMeasure.getLastNoteDuration();
+        return Fraction.toDouble(getLastNoteLength());
     }
 
     // Follow the chain back to the beginning of the current section.
     public Measure getSectionStart() {
-        // If we're at the beginning of the song or the beginning of the last section, return this.
-        if (null == previousMeasure || startLine == BarLineEnum.REPEAT_START || startLine == BarLineEnum.SECTION_END) {
-            return this;
+        Measure measure = this;
+        // Stop at the beginning of the song or the beginning of the last section.
+        while (null != measure.getPreviousMeasure() && measure.getStartLine() != BarLineEnum.REPEAT_START && measure.getStartLine() != BarLineEnum.SECTION_END) {
+            measure = measure.getPreviousMeasure();
         }
-        return previousMeasure.getSectionStart();
+        return measure;
     }
 
     public Measure getNextAlternateEnding(final int endingIndex) {
-        if (null != alternateEnding && endingIndex == alternateEnding.getEndingIndex()) {
+        Measure measure = this;
+        while (null == measure.getAlternateEnding() || endingIndex != measure.getAlternateEnding().getEndingIndex()) {
+            if (null == measure.getNextMeasure()) {
+                throw new IllegalArgumentException("Unable to find matching index " + endingIndex);
+            }
+            measure = measure.getNextMeasure();
+        }
+        return measure;
+    }
+
+    /**
+     * Collects the settings and entities of a measure as the parser reads them.
+     */
+    public static class Builder {
+
+        private Integer index;
+        private String voiceName;
+        private long noteLength = Fraction.NONE;
+        private Meter meter;
+        private Integer tempo;
+        private MeasureKey key;
+        private MeasureContext context;
+        private BarLineEnum startLine;
+        private BarLineEnum endLine;
+        private AlternateEnding alternateEnding;
+        private final List<MeasureEntity> entities = new ArrayList<>();
+        private Interner interner = Interner.NONE;
+
+        public Integer getIndex() {
+            return index;
+        }
+
+        public String getVoiceName() {
+            return voiceName;
+        }
+
+        public MeasureContext getContext() {
+            return context;
+        }
+
+        public BarLineEnum getEndLine() {
+            return endLine;
+        }
+
+        public Builder withIndex(final Integer index) {
+            this.index = index;
+            return this;
+        }
+        public Builder withVoiceName(final String voiceName) {
+            this.voiceName = voiceName;
+            return this;
+        }
+        public Builder withNoteLength(final long noteLength) {
+            this.noteLength = noteLength;
+            return this;
+        }
+        public Builder withMeter(final Meter meter) {
+            this.meter = meter;
+            return this;
+        }
+        public Builder withTempo(final Integer tempo) {
+            this.tempo = tempo;
+            return this;
+        }
+        public Builder withKey(final MeasureKey key) {
+            this.key = key;
+            return this;
+        }
+        public Builder withContext(final MeasureContext context) {
+            this.context = context;
+            return this;
+        }
+        public Builder withStartLine(final BarLineEnum startLine) {
+            this.startLine = startLine;
             return this;
         }
-        if (null == nextMeasure) {
-            throw new IllegalArgumentException("Unable to find matching index " + endingIndex);
+        public Builder withEndLine(final BarLineEnum endLine) {
+            this.endLine = endLine;
+            return this;
+        }
+        public Builder withAlternateEnding(final AlternateEnding alternateEnding) {
+            this.alternateEnding = alternateEnding;
+            return this;
+        }
+        public Builder withInterner(final Interner interner) {
+            this.interner = interner;
+            return this;
+        }
+        public Builder addEntity(final MeasureEntity entity) {
+            entities.add(entity);
+            return this;
+        }
+
+        // Builds the measure at the position given in the voice's linked measures, which are filled in afterwards.
+        Measure build(final List<Measure> linked, final int position) {
+            return new Measure(this, linked, position);
         }
-        return nextMeasure.getNextAlternateEnding(endingIndex);
     }
 }
@@ -0,0 +1,78 @@
+package model;
+
+import java.util.Objects;
+
+/**
+ * The tempo, key, meter, and default note duration in effect for a measure.  Contexts are immutable and shared by every
+ * measure in a run where none of those settings change, so a measure can find its settings without walking back
+ * through the measures before it.
+ */
+public class MeasureContext {
+
+    // Defines the number of default length notes per minute.
+    private final Integer tempo;
+
+    // Defines which notes are should be flat or sharp.
+    private final MeasureKey key;
+
+    // Defines what the sum of all note durations in a bar should be.
+    private final Meter meter;
+
+    // The default note duration as a packed Fraction of a whole note.  Used when determining the actual duration of
+    // parsed notes.
+    private final long noteLength;
+
+    public MeasureContext(final Integer tempo, final MeasureKey key, final Meter meter, final long noteLength) {
+        this.tempo = tempo;
+        this.key = key;
+        this.meter = meter;
+        this.noteLength = noteLength;
+    }
+
+    public Integer getTempo() {
+        return tempo;
+    }
+
+    public MeasureKey getKey() {
+        return key;
+    }
+
+    public Meter getMeter() {
+        return meter;
+    }
+
+    public long getNoteLength() {
+        return noteLength;
+    }
+
+    public Double getNoteDuration() {
+        return Fraction.toDouble(noteLength);
+    }
+
+    /**
+     * Returns the context with the given settings, reusing this one if none of them changed.
+     */
+    public MeasureContext with(final Integer tempo, final MeasureKey key, final Meter meter, final long noteLength) {
+        if (Objects.equals(this.tempo, tempo) && Objects.equals(this.key, key) && Objects.equals(this.meter, meter) && this.noteLength == noteLength) {
+            return this;
+        }
+        return new MeasureContext(tempo, key, meter, noteLength);
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof MeasureContext)) {
+            return false;
+        }
+        final MeasureContext other = (MeasureContext) obj;
+        return Objects.equals(tempo, other.tempo) && Objects.equals(key, other.key) && Objects.equals(meter, other.meter) && noteLength == other.noteLength;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(tempo, key, meter, noteLength);
+    }
+}
@@ -5,7 +5,7 @@ import model.enums.Accidental;
 import model.enums.Key;
 import model.enums.NoteEnum;
 
-import java.util.List;
+import java.util.Objects;
 
 import static model.enums.Accidental.FLAT;
 import static model.enums.Accidental.SHARP;
@@ -13,26 +13,65 @@ import static model.enums.Key.keyToFlats;
 import static model.enums.Key.keyToSharps;
 
 /**
- * Provides a method to determine whether a note is sharp or flat.
+ * Provides a method to determine whether a note is sharp or flat.  There are only as many key signatures as keys, so
+ * the parser shares one instance per key through of.
  */
 public class MeasureKey {
 
-    private Key key;
-    private List<NoteEnum> flats;
-    private List<NoteEnum> sharps;
+    // The shared key signature of each key, indexed by the key's ordinal.
+    private static final MeasureKey[] keys;
+    static {
+        keys = new MeasureKey[Key.values().length];
+        for (Key key : Key.values()) {
+            keys[key.ordinal()] = new MeasureKey(key);
+        }
+    }
+
+    private final Key key;
+
+    // The accidental the key signature gives each note, indexed by note ordinal, or null for none.
+    private final Accidental[] accidentals;
 
     public MeasureKey(final Key key) {
         this.key = key;
-        this.flats = keyToFlats.get(key);
-        this.sharps = keyToSharps.get(key);
+        this.accidentals = new Accidental[NoteEnum.values().length];
+        if (null != keyToSharps.get(key)) {
+            keyToSharps.get(key).forEach(note -> accidentals[note.ordinal()] = SHARP);
+        }
+        // Flats are checked first, so they win should a key have both.
+        if (null != keyToFlats.get(key)) {
+            keyToFlats.get(key).forEach(note -> accidentals[note.ordinal()] = FLAT);
+        }
+    }
+
+    /**
+     * @param key the key.
+     * @return the key signature shared by every measure in that key.
+     */
+    public static MeasureKey of(final Key key) {
+        return keys[key.ordinal()];
     }
 
     public Accidental getAccidental(final Note note) {
-        return null != flats && flats.contains(note.getNoteEnum()) ? FLAT :
-               null != sharps && sharps.contains(note.getNoteEnum()) ? SHARP : null;
+        return getAccidental(note.getNoteEnum());
+    }
+
+    public Accidental getAccidental(final NoteEnum note) {
+        return accidentals[note.ordinal()];
     }
 
     public Key getKey() {
         return key;
     }
+
+    // The accidentals all follow from the key.
+    @Override
+    public boolean equals(final Object obj) {
+        return obj instanceof MeasureKey && ((MeasureKey) obj).getKey() == key;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(key);
+    }
 }
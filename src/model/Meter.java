@@ -1,36 +1,28 @@
 package model;
 
+import java.util.Objects;
+
 /**
- * A representation of how many beats are in a measure.
+ * A representation of how many beats are in a measure.  Meters can't be changed once made.
  */
 public class Meter {
 	// The upper part of the meter, specifying how many beats are in each measure.
-	private Integer beatsPerMeasure;
+	private final Integer beatsPerMeasure;
 	// The lower part of the meter, defining the type of beat (4 = quarter note, 8 = eighth note, etc). 
-	private Integer duration;
+	private final Integer duration;
+
+	public Meter(final Integer beatsPerMeasure, final Integer duration) {
+		this.beatsPerMeasure = beatsPerMeasure;
+		this.duration = duration;
+	}
 	
 	public Integer getBeatsPerMeasure() {
 		return beatsPerMeasure;
 	}
-	public void setBeatsPerMeasure(Integer beatsPerMeasure) {
-		this.beatsPerMeasure = beatsPerMeasure;
-	}
 	
 	public Integer getDuration() {
 		return duration;
 	}
-	public void setDuration(Integer duration) {
-		this.duration = duration;
-	}
-
-	public Meter withBeatsPerMeasure(Integer beatsPerMeasure) {
-		setBeatsPerMeasure(beatsPerMeasure);
-		return this;
-	}
-	public Meter withDuration(Integer duration) {
-		setDuration(duration);
-		return this;
-	}
 
     @Override
     public String toString() {
@@ -43,4 +35,9 @@ public class Meter {
                 ((Meter) obj).getBeatsPerMeasure().equals(beatsPerMeasure) &&
                 ((Meter) obj).getDuration().equals(duration);
     }
+
+    @Override
+    public int hashCode() {
+        return 31 * Objects.hashCode(beatsPerMeasure) + Objects.hashCode(duration);
+    }
 }
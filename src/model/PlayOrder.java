@@ -0,0 +1,162 @@
+package model;
+
+import model.enums.BarLineEnum;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The order a voice's measures are played in, following repeats and alternate endings.  Every measure is given a
+ * position and every position and pass through a repeat is mapped to the position and pass that come next, so players
+ * can follow the voice one step at a time without searching the measures for section starts or endings.
+ *
+ * A pass is 1 the first time through a section and 2 while playing it again after a repeat.
+ */
+public class PlayOrder {
+
+    // Returned when there is nothing left to play.
+    public static final int END = -1;
+
+    // Marks a jump to an alternate ending that doesn't exist.  Only reported if the jump is taken.
+    private static final int MISSING_ENDING = -2;
+
+    // The number of passes through a section that are tracked.
+    private static final int PASSES = 2;
+
+    // The measures in the order they are linked, including the empty measure linked after a closing bar line.
+    private final List<Measure> measures;
+
+    // The position and pass that follow each position and pass, stored at position * PASSES + pass - 1.
+    private final int[] nextPositions;
+    private final int[] nextPasses;
+
+    /**
+     * Builds the play order by following the links from the voice's first measure.
+     *
+     * @param voice the voice to build the play order for.
+     */
+    public PlayOrder(final Voice voice) {
+        measures = new ArrayList<>();
+        final Map<Measure, Integer> positions = new HashMap<>();
+        if (null != voice.getMeasures() && !voice.getMeasures().isEmpty()) {
+            for (Measure measure = voice.getMeasures().get(0); null != measure; measure = measure.getNextMeasure()) {
+                if (null != positions.put(measure, measures.size())) {
+                    throw new IllegalArgumentException("Measure " + measure.getIndex() + " links back to itself.");
+                }
+                measures.add(measure);
+            }
+        }
+        final int size = measures.size();
+
+        // Where the section containing each position starts.
+        final int[] sectionStarts = new int[size];
+        for (int position = 0; position < size; position++) {
+            final Measure measure = measures.get(position);
+            final Integer previous = positions.get(measure.getPreviousMeasure());
+            if (null == measure.getPreviousMeasure() || measure.getStartLine() == BarLineEnum.REPEAT_START || measure.getStartLine() == BarLineEnum.SECTION_END) {
+                sectionStarts[position] = position;
+            } else if (null != previous && previous < position) {
+                sectionStarts[position] = sectionStarts[previous];
+            } else {
+                sectionStarts[position] = getPosition(positions, measure.getSectionStart());
+            }
+        }
+
+        // The first alternate ending for each pass at or after each position.
+        final int[] nextEndings = new int[size * PASSES];
+        for (int position = size - 1; position >= 0; position--) {
+            final Measure measure = measures.get(position);
+            for (int pass = 1; pass <= PASSES; pass++) {
+                final boolean matches = null != measure.getAlternateEnding() && pass == measure.getAlternateEnding().getEndingIndex();
+                nextEndings[toSlot(position, pass)] = matches ? position : position == size - 1 ? MISSING_ENDING : nextEndings[toSlot(position + 1, pass)];
+            }
+        }
+
+        nextPositions = new int[size * PASSES];
+        nextPasses = new int[size * PASSES];
+        for (int position = 0; position < size; position++) {
+            final Measure measure = measures.get(position);
+            for (int pass = 1; pass <= PASSES; pass++) {
+                final int slot = toSlot(position, pass);
+                int nextPosition;
+                int nextPass = pass;
+                if (null == measure.getNextMeasure()) {
+                    nextPosition = END;
+                }
+                // A repeat goes back to the section start the first time through and carries on the second.
+                else if (measure.getEndLine() == BarLineEnum.REPEAT_END) {
+                    nextPosition = 1 == pass ? sectionStarts[position] : position + 1;
+                    nextPass = 1 == pass ? 2 : pass - 1;
+                }
+                // Alternate endings go to the one numbered for this pass.
+                else if (null != measure.getNextMeasure().getAlternateEnding()) {
+                    nextPosition = nextEndings[slot];
+                } else {
+                    nextPosition = position + 1;
+                }
+
+                // A section end starts counting passes again.
+                if (0 <= nextPosition && measures.get(nextPosition).getEndLine() == BarLineEnum.SECTION_END) {
+                    nextPass = 1;
+                }
+                nextPositions[slot] = nextPosition;
+                nextPasses[slot] = nextPass;
+            }
+        }
+    }
+
+    /**
+     * @return the number of positions, which includes any empty measure linked after the last bar line.
+     */
+    public int size() {
+        return measures.size();
+    }
+
+    public Measure getMeasure(final int position) {
+        return measures.get(position);
+    }
+
+    /**
+     * @return every measure with its position as its index.
+     */
+    public List<Measure> getMeasures() {
+        return Collections.unmodifiableList(measures);
+    }
+
+    /**
+     * @param position the position just played.
+     * @param pass the pass it was played on.
+     * @return the position to play next, or END if the voice is finished.
+     */
+    public int getNextPosition(final int position, final int pass) {
+        final int nextPosition = nextPositions[toSlot(position, pass)];
+        if (MISSING_ENDING == nextPosition) {
+            throw new IllegalArgumentException("Unable to find matching index " + pass);
+        }
+        return nextPosition;
+    }
+
+    /**
+     * @param position the position just played.
+     * @param pass the pass it was played on.
+     * @return the pass the next position is played on.
+     */
+    public int getNextPass(final int position, final int pass) {
+        return nextPasses[toSlot(position, pass)];
+    }
+
+    private static int toSlot(final int position, final int pass) {
+        return position * PASSES + pass - 1;
+    }
+
+    private static int getPosition(final Map<Measure, Integer> positions, final Measure measure) {
+        final Integer position = positions.get(measure);
+        if (null == position) {
+            throw new IllegalArgumentException("Measure " + measure.getIndex() + " isn't linked from the start of the voice.");
+        }
+        return position;
+    }
+}
@@ -1,57 +1,103 @@
 package model;
 
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
+import static parser.AbcHelper.STANDARD_COMPOSER;
+
 /**
- * A representation of a song.
+ * A representation of a song.  Songs can't be changed once built, all the way down to the notes, so one parsed song
+ * can be played, rendered, and cached by any number of threads at once.
  */
 public class Song {
 	// The song id.
-	private Integer index;
+	private final Integer index;
 	
 	// The song title.
-	private String title;
+	private final String title;
 	
 	// The song composer.
-	private String composer = "Unknown";
+	private final String composer;
 	
 	// The list of voices for this song mapped by their name.  Defaults to one if none are defined.
-	private Map<String, Voice> voices;
+	private final Map<String, Voice> voices;
+
+	private Song(final Builder builder) {
+		this.index = builder.index;
+		this.title = builder.title;
+		this.composer = builder.composer;
+		this.voices = Collections.unmodifiableMap(new LinkedHashMap<>(builder.voices));
+	}
 	
 	public Integer getIndex() {
 		return index;
 	}
-	public void setIndex(Integer index) {
-		this.index = index;
-	}
 	
 	public String getTitle() {
 		return title;
 	}
-	public void setTitle(String title) {
-		this.title = title;
-	}
 	
 	public String getComposer() {
 		return composer;
 	}
-	public void setComposer(String composer) {
-		this.composer = composer;
-	}
 	
 	public Map<String, Voice> getVoices() {
 		return voices;
 	}
-	public void setVoices(Map<String, Voice> voices) {
-		this.voices = voices;
-	}
 
-    public Song withComposer(final String composer) {
-        setComposer(composer);
-        return this;
-    }
-    public Song withVoices(Map<String, Voice> voices) {
-		setVoices(voices);
-		return this;
+	/**
+	 * Collects the headers and voices of a song as the parser reads them.  The voices keep the order they are added in.
+	 */
+	public static class Builder {
+
+		private Integer index;
+		private String title;
+		private String composer = STANDARD_COMPOSER;
+		private final Map<String, Voice> voices = new LinkedHashMap<>();
+
+		public Builder() {
+		}
+
+		/**
+		 * Starts from everything in the song given.
+		 */
+		public Builder(final Song song) {
+			index = song.getIndex();
+			title = song.getTitle();
+			composer = song.getComposer();
+			voices.putAll(song.getVoices());
+		}
+
+		public Integer getIndex() {
+			return index;
+		}
+		public String getTitle() {
+			return title;
+		}
+		public String getComposer() {
+			return composer;
+		}
+
+		public Builder withIndex(final Integer index) {
+			this.index = index;
+			return this;
+		}
+		public Builder withTitle(final String title) {
+			this.title = title;
+			return this;
+		}
+		public Builder withComposer(final String composer) {
+			this.composer = composer;
+			return this;
+		}
+		public Builder withVoice(final String name, final Voice voice) {
+			voices.put(name, voice);
+			return this;
+		}
+
+		public Song build() {
+			return new Song(this);
+		}
 	}
 }
@@ -1,25 +1,91 @@
 package model;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
  * A representation of a single musical track in a song.  Iterating over the measures and following the bar types will
- * result in the track being played appropriately.
+ * result in the track being played appropriately.  Voices can't be changed once built, so the play order is worked out
+ * once as the voice is built.
  */
 public class Voice {
 
 	// This list of measures belonging to this voice.
-	private List<Measure> measures;
-	
+	private final List<Measure> measures;
+
+	// The order the measures are played in.
+	private final PlayOrder playOrder;
+
+	// For voices that supply their own measures and play order.
+	protected Voice() {
+		this.measures = Collections.emptyList();
+		this.playOrder = null;
+	}
+
+	private Voice(final Builder builder) {
+		// The empty measure opened by a closing bar line is linked after the last one, but isn't one of the voice's.
+		final List<Measure> linked = new ArrayList<>(builder.measures.size() + 1);
+		final List<Measure> readOnly = Collections.unmodifiableList(linked);
+		for (Measure.Builder measure : builder.measures) {
+			linked.add(measure.build(readOnly, linked.size()));
+		}
+		if (null != builder.nextMeasure) {
+			linked.add(builder.nextMeasure.build(readOnly, linked.size()));
+		}
+		this.measures = readOnly.subList(0, builder.measures.size());
+		this.playOrder = new PlayOrder(this);
+	}
+
 	public List<Measure> getMeasures() {
 		return measures;
 	}
-	public void setMeasures(List<Measure> measures) {
-		this.measures = measures;
+
+	/**
+	 * @return the order the measures are played in, following repeats and alternate endings.
+	 */
+	public PlayOrder getPlayOrder() {
+		return playOrder;
 	}
 
-	public Voice withMeasures(List<Measure> sections) {
-		setMeasures(sections);
-		return this;
+	/**
+	 * Collects the measures of a voice as the parser reads them, linking them in the order they are added.
+	 */
+	public static class Builder {
+
+		private final List<Measure.Builder> measures = new ArrayList<>();
+
+		// The empty measure opened by the bar line after the last measure, until another measure is added.
+		private Measure.Builder nextMeasure;
+
+		/**
+		 * @return the measure added last, or null if there are none yet.
+		 */
+		public Measure.Builder getLastMeasure() {
+			return measures.isEmpty() ? null : measures.get(measures.size() - 1);
+		}
+
+		public int getMeasureCount() {
+			return measures.size();
+		}
+
+		public Builder addMeasure(final Measure.Builder measure) {
+			measures.add(measure);
+			nextMeasure = null;
+			return this;
+		}
+
+		/**
+		 * Links an empty measure after the last one, so players can follow a repeat at the very end of the voice.  It is
+		 * dropped if another measure is added.
+		 */
+		public Builder withNextMeasure(final Measure.Builder nextMeasure) {
+			this.nextMeasure = nextMeasure;
+			return this;
+		}
+
+		public Voice build() {
+			return new Voice(this);
+		}
 	}
 }
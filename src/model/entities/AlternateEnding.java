@@ -1,22 +1,55 @@
 package model.entities;
 
+import java.util.Objects;
+
 /**
  * A representation of the concept of alternate endings (different music to play based on how many times you've looped through the main section).
  */
 public class AlternateEnding extends MeasureEntity {
 
     // Denotes how many times through a repeat to go before this measure gets played.
-    private Integer endingIndex;
+    private final Integer endingIndex;
+
+    // For views that supply their own values.
+    protected AlternateEnding() {
+        this.endingIndex = null;
+    }
+
+    private AlternateEnding(final Builder builder) {
+        super(builder);
+        this.endingIndex = builder.endingIndex;
+    }
 
     public Integer getEndingIndex() {
         return endingIndex;
     }
-    public void setEndingIndex(Integer endingIndex) {
-        this.endingIndex = endingIndex;
+
+    @Override
+    public boolean equals(final Object obj) {
+        return obj instanceof AlternateEnding && Objects.equals(((AlternateEnding) obj).getEndingIndex(), getEndingIndex());
     }
 
-    public AlternateEnding withEndingIndex(final Integer endingIndex) {
-        setEndingIndex(endingIndex);
-        return this;
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(getEndingIndex());
+    }
+
+    public static class Builder extends MeasureEntity.Builder {
+
+        private Integer endingIndex;
+
+        @Override
+        public Builder withMultiplier(final long multiplier) {
+            super.withMultiplier(multiplier);
+            return this;
+        }
+        public Builder withEndingIndex(final Integer endingIndex) {
+            this.endingIndex = endingIndex;
+            return this;
+        }
+
+        public AlternateEnding build() {
+            return new AlternateEnding(this);
+        }
     }
 }
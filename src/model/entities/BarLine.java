@@ -2,23 +2,51 @@ package model.entities;
 
 import model.enums.BarLineEnum;
 
+import java.util.Objects;
+
 /**
  * A representation of a bar line that separates measures.
  */
 public class BarLine extends MeasureEntity {
 
     // The bar line type.
-    private BarLineEnum type;
+    private final BarLineEnum type;
+
+    private BarLine(final Builder builder) {
+        super(builder);
+        this.type = builder.type;
+    }
 
     public BarLineEnum getType() {
         return type;
     }
-    public void setType(BarLineEnum type) {
-        this.type = type;
+
+    @Override
+    public boolean equals(final Object obj) {
+        return obj instanceof BarLine && ((BarLine) obj).getType() == type;
     }
 
-    public BarLine withType(final BarLineEnum type) {
-        setType(type);
-        return this;
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(type);
+    }
+
+    public static class Builder extends MeasureEntity.Builder {
+
+        private BarLineEnum type;
+
+        @Override
+        public Builder withMultiplier(final long multiplier) {
+            super.withMultiplier(multiplier);
+            return this;
+        }
+        public Builder withType(final BarLineEnum type) {
+            this.type = type;
+            return this;
+        }
+
+        public BarLine build() {
+            return new BarLine(this);
+        }
     }
 }
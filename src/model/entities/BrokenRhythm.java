@@ -8,32 +8,58 @@ package model.entities;
  */
 public class BrokenRhythm extends MeasureEntity {
 
-    // The multiplier to apply to the first note/chord.
-    private Double firstNoteMultiplier;
+    // The multiplier to apply to the first note/chord, as a packed Fraction.
+    private final long firstNoteMultiplier;
 
-    // The multiplier to apply to the second note/chord.
-    private Double secondNoteMultiplier;
+    // The multiplier to apply to the second note/chord, as a packed Fraction.
+    private final long secondNoteMultiplier;
 
-    public Double getFirstNoteMultiplier() {
-        return firstNoteMultiplier;
+    private BrokenRhythm(final Builder builder) {
+        super(builder);
+        this.firstNoteMultiplier = builder.firstNoteMultiplier;
+        this.secondNoteMultiplier = builder.secondNoteMultiplier;
     }
-    public void setFirstNoteMultiplier(Double firstNoteMultiplier) {
-        this.firstNoteMultiplier = firstNoteMultiplier;
+
+    public long getFirstNoteMultiplier() {
+        return firstNoteMultiplier;
     }
 
-    public Double getSecondNoteMultiplier() {
+    public long getSecondNoteMultiplier() {
         return secondNoteMultiplier;
     }
-    public void setSecondNoteMultiplier(Double secondNoteMultiplier) {
-        this.secondNoteMultiplier = secondNoteMultiplier;
+
+    @Override
+    public boolean equals(final Object obj) {
+        return obj instanceof BrokenRhythm && ((BrokenRhythm) obj).getFirstNoteMultiplier() == firstNoteMultiplier &&
+                ((BrokenRhythm) obj).getSecondNoteMultiplier() == secondNoteMultiplier;
     }
 
-    public BrokenRhythm withFirstNoteMultiplier(final Double firstNoteMultiplier) {
-        setFirstNoteMultiplier(firstNoteMultiplier);
-        return this;
+    @Override
+    public int hashCode() {
+        return 31 * Long.hashCode(firstNoteMultiplier) + Long.hashCode(secondNoteMultiplier);
     }
-    public BrokenRhythm withSecondNoteMultiplier(final Double secondNoteMultiplier) {
-        setSecondNoteMultiplier(secondNoteMultiplier);
-        return this;
+
+    public static class Builder extends MeasureEntity.Builder {
+
+        private long firstNoteMultiplier;
+        private long secondNoteMultiplier;
+
+        @Override
+        public Builder withMultiplier(final long multiplier) {
+            super.withMultiplier(multiplier);
+            return this;
+        }
+        public Builder withFirstNoteMultiplier(final long firstNoteMultiplier) {
+            this.firstNoteMultiplier = firstNoteMultiplier;
+            return this;
+        }
+        public Builder withSecondNoteMultiplier(final long secondNoteMultiplier) {
+            this.secondNoteMultiplier = secondNoteMultiplier;
+            return this;
+        }
+
+        public BrokenRhythm build() {
+            return new BrokenRhythm(this);
+        }
     }
 }
@@ -1,5 +1,7 @@
 package model.entities;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -8,22 +10,51 @@ import java.util.List;
 public class Chord extends MeasureEntity {
 
     // The set of notes to play at the same time.
-    private List<Note> notes;
+    private final List<Note> notes;
+
+    // For views that supply their own values.
+    protected Chord() {
+        this.notes = Collections.emptyList();
+    }
+
+    private Chord(final Builder builder) {
+        super(builder);
+        this.notes = Collections.unmodifiableList(new ArrayList<>(builder.notes));
+    }
 
     public List<Note> getNotes() {
         return notes;
     }
-    public void setNotes(List<Note> notes) {
-        this.notes = notes;
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        return obj instanceof Chord && ((Chord) obj).getMultiplier() == getMultiplier() && ((Chord) obj).getNotes().equals(getNotes());
     }
 
     @Override
-    public Chord withDurationMultiplier(final Double duration) {
-        setDurationMultiplier(duration);
-        return this;
+    public int hashCode() {
+        return 31 * getNotes().hashCode() + Long.hashCode(getMultiplier());
     }
-    public Chord withNotes(final List<Note> notes) {
-        setNotes(notes);
-        return this;
+
+    public static class Builder extends MeasureEntity.Builder {
+
+        private List<Note> notes = Collections.emptyList();
+
+        @Override
+        public Builder withMultiplier(final long multiplier) {
+            super.withMultiplier(multiplier);
+            return this;
+        }
+        public Builder withNotes(final List<Note> notes) {
+            this.notes = notes;
+            return this;
+        }
+
+        public Chord build() {
+            return new Chord(this);
+        }
     }
 }
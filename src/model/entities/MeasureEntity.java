@@ -1,23 +1,49 @@
 package model.entities;
 
+import model.Fraction;
+
 /**
- * The base class that all bar entities extend from.
+ * The base class that all bar entities extend from.  Entities can't be changed once built, so a parsed song can be
+ * shared between threads.
  */
 public class MeasureEntity {
 
-    // The factor to multiply the default note duration for the measure
-    // ex. If the default note duration is an eighth note (0.125) and the multiplier is 2 then the actual note duration is a quarter note (0.25).
-    private Double durationMultiplier = 1.0;
+    // The factor to multiply the default note duration for the measure, as a packed Fraction.
+    // ex. If the default note duration is an eighth note (1/8) and the multiplier is 2 then the actual note duration is a quarter note (1/4).
+    private final long multiplier;
 
-    public Double getDurationMultiplier() {
-        return durationMultiplier;
+    // For views that supply their own values.
+    protected MeasureEntity() {
+        this.multiplier = Fraction.ONE;
+    }
+
+    protected MeasureEntity(final Builder builder) {
+        this.multiplier = builder.multiplier;
     }
-    public void setDurationMultiplier(Double durationMultiplier) {
-        this.durationMultiplier = durationMultiplier;
+
+    public long getMultiplier() {
+        return multiplier;
     }
 
-    public MeasureEntity withDurationMultiplier(final Double durationMultiplier) {
-        setDurationMultiplier(durationMultiplier);
-        return this;
+    // The multiplier as a double, for callers that don't need it exact.
+    public Double getDurationMultiplier() {
+        return Fraction.toDouble(getMultiplier());
+    }
+
+    /**
+     * Collects the parts of an entity as the parser reads them.  Each entity has its own builder extending this one.
+     */
+    public static class Builder {
+
+        private long multiplier = Fraction.ONE;
+
+        public long getMultiplier() {
+            return multiplier;
+        }
+
+        public Builder withMultiplier(final long multiplier) {
+            this.multiplier = multiplier;
+            return this;
+        }
     }
 }
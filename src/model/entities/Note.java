@@ -3,56 +3,96 @@ package model.entities;
 import model.enums.Accidental;
 import model.enums.NoteEnum;
 
+import java.util.Objects;
+
 /**
  * A representation of a single note in the song.
  */
 public class Note extends MeasureEntity {
 
     // The raw note value.
-    private NoteEnum noteEnum;
+    private final NoteEnum noteEnum;
 
     // The octave of the note.
-    private int octave = 0;
+    private final int octave;
 
     // The accidental override associated with the note.  Any further similar notes in the measure will have the same accidental applied.
-    private Accidental accidentalOverride = null;
+    private final Accidental accidentalOverride;
+
+    // For views that supply their own values.
+    protected Note() {
+        this.noteEnum = null;
+        this.octave = 0;
+        this.accidentalOverride = null;
+    }
+
+    private Note(final Builder builder) {
+        super(builder);
+        this.noteEnum = builder.noteEnum;
+        this.octave = builder.octave;
+        this.accidentalOverride = builder.accidentalOverride;
+    }
 
     public NoteEnum getNoteEnum() {
         return noteEnum;
     }
-    public void setNoteEnum(NoteEnum noteEnum) {
-        this.noteEnum = noteEnum;
-    }
 
     public int getOctave() {
         return octave;
     }
-    public void setOctave(int octave) {
-        this.octave = octave;
-    }
 
     public Accidental getAccidentalOverride() {
         return accidentalOverride;
     }
-    public void setAccidentalOverride(Accidental accidentalOverride) {
-        this.accidentalOverride = accidentalOverride;
-    }
 
-    public Note withNoteEnum(final NoteEnum noteEnum) {
-        setNoteEnum(noteEnum);
-        return this;
-    }
-    public Note withOctave(final int octave) {
-        setOctave(octave);
-        return this;
+    // Notes that play the same are equal, so an Interner can share one instance between them.
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof Note)) {
+            return false;
+        }
+        final Note other = (Note) obj;
+        return getNoteEnum() == other.getNoteEnum() && getOctave() == other.getOctave() &&
+                getAccidentalOverride() == other.getAccidentalOverride() && getMultiplier() == other.getMultiplier();
     }
+
     @Override
-    public Note withDurationMultiplier(final Double durationMultiplier) {
-        setDurationMultiplier(durationMultiplier);
-        return this;
+    public int hashCode() {
+        int hash = Objects.hashCode(getNoteEnum());
+        hash = 31 * hash + getOctave();
+        hash = 31 * hash + Objects.hashCode(getAccidentalOverride());
+        return 31 * hash + Long.hashCode(getMultiplier());
     }
-    public Note withAccidental(final Accidental accidental) {
-        setAccidentalOverride(accidental);
-        return this;
+
+    public static class Builder extends MeasureEntity.Builder {
+
+        private NoteEnum noteEnum;
+        private int octave = 0;
+        private Accidental accidentalOverride = null;
+
+        public Builder withNoteEnum(final NoteEnum noteEnum) {
+            this.noteEnum = noteEnum;
+            return this;
+        }
+        public Builder withOctave(final int octave) {
+            this.octave = octave;
+            return this;
+        }
+        @Override
+        public Builder withMultiplier(final long multiplier) {
+            super.withMultiplier(multiplier);
+            return this;
+        }
+        public Builder withAccidental(final Accidental accidental) {
+            this.accidentalOverride = accidental;
+            return this;
+        }
+
+        public Note build() {
+            return new Note(this);
+        }
     }
 }
@@ -5,9 +5,34 @@ package model.entities;
  */
 public class Rest extends MeasureEntity {
 
+    // For views that supply their own values.
+    protected Rest() {
+    }
+
+    private Rest(final Builder builder) {
+        super(builder);
+    }
+
     @Override
-    public Rest withDurationMultiplier(final Double durationMultiplier) {
-        setDurationMultiplier(durationMultiplier);
-        return this;
+    public boolean equals(final Object obj) {
+        return obj instanceof Rest && ((Rest) obj).getMultiplier() == getMultiplier();
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(getMultiplier());
+    }
+
+    public static class Builder extends MeasureEntity.Builder {
+
+        @Override
+        public Builder withMultiplier(final long multiplier) {
+            super.withMultiplier(multiplier);
+            return this;
+        }
+
+        public Rest build() {
+            return new Rest(this);
+        }
     }
 }
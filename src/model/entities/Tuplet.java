@@ -1,5 +1,7 @@
 package model.entities;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -8,22 +10,51 @@ import java.util.List;
 public class Tuplet extends MeasureEntity {
 
     // The set of entities to play for the tuplet (can be entities or chords), spread evenly over the specified duration.
-    private List<MeasureEntity> entities;
+    private final List<MeasureEntity> entities;
+
+    // For views that supply their own values.
+    protected Tuplet() {
+        this.entities = Collections.emptyList();
+    }
+
+    private Tuplet(final Builder builder) {
+        super(builder);
+        this.entities = Collections.unmodifiableList(new ArrayList<>(builder.entities));
+    }
 
     public List<MeasureEntity> getEntities() {
         return entities;
     }
-    public void setEntities(List<MeasureEntity> entities) {
-        this.entities = entities;
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        return obj instanceof Tuplet && ((Tuplet) obj).getMultiplier() == getMultiplier() && ((Tuplet) obj).getEntities().equals(getEntities());
     }
 
     @Override
-    public Tuplet withDurationMultiplier(final Double duration) {
-        setDurationMultiplier(duration);
-        return this;
+    public int hashCode() {
+        return 31 * getEntities().hashCode() + Long.hashCode(getMultiplier());
     }
-    public Tuplet withEntities(final List<MeasureEntity> notes) {
-        setEntities(notes);
-        return this;
+
+    public static class Builder extends MeasureEntity.Builder {
+
+        private List<MeasureEntity> entities = Collections.emptyList();
+
+        @Override
+        public Builder withMultiplier(final long multiplier) {
+            super.withMultiplier(multiplier);
+            return this;
+        }
+        public Builder withEntities(final List<MeasureEntity> entities) {
+            this.entities = entities;
+            return this;
+        }
+
+        public Tuplet build() {
+            return new Tuplet(this);
+        }
     }
 }
@@ -1,11 +1,11 @@
 package parser;
 
+import model.Fraction;
 import model.Meter;
 import model.enums.Key;
 import model.enums.NoteEnum;
 
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.stream.Stream;
@@ -28,30 +28,46 @@ public class AbcHelper {
     // The important characters that comprise the body of an abc file.
     public static final Set<Character> NOTE_CHARS = Stream.of('a', 'b', 'c', 'd', 'e', 'f', 'g', 'A', 'B', 'C', 'D', 'E', 'F', 'G').collect(toSet());
     public static final Set<Character> NUM_CHARS = Stream.of('1', '2', '3', '4', '5', '6', '7', '8', '9', '0').collect(toSet());
-    public static final Character SLASH_CHAR = '/';
-    public static final Character SHARP_CHAR = '^';
-    public static final Character FLAT_CHAR = '_';
-    public static final Character NATURAL_CHAR = '=';
+    public static final char SLASH_CHAR = '/';
+    public static final char SHARP_CHAR = '^';
+    public static final char FLAT_CHAR = '_';
+    public static final char NATURAL_CHAR = '=';
     public static final Set<Character> ACCIDENTAL_CHARS = Stream.of(SHARP_CHAR, FLAT_CHAR, NATURAL_CHAR).collect(toSet());
-    public static final Character REST_CHAR = 'z';
-    public static final Character OCTAVE_DOWN_CHAR = ',';
-    public static final Character OCTAVE_UP_CHAR = '\'';
+    public static final char REST_CHAR = 'z';
+    public static final char OCTAVE_DOWN_CHAR = ',';
+    public static final char OCTAVE_UP_CHAR = '\'';
     public static final Set<Character> OCTAVE_CHARS = Stream.of(OCTAVE_DOWN_CHAR, OCTAVE_UP_CHAR).collect(toSet());
-    public static final Character COMMENT_CHAR = '%';
-    public static final Character CHORD_OR_ALT_START_CHAR = '[';
-    public static final Character CHORD_END_CHAR = ']';
-    public static final Character TUPLET_START_CHAR = '(';
-    public static final Character REPEAT_CHAR = ':';
-    public static final Character BAR_CHAR = '|';
-    public static final Character BROKEN_RHYTHM_FORWARD = '<';
-    public static final Character BROKEN_RHYTHM_BACK = '>';
+    public static final char COMMENT_CHAR = '%';
+    public static final char CHORD_OR_ALT_START_CHAR = '[';
+    public static final char CHORD_END_CHAR = ']';
+    public static final char TUPLET_START_CHAR = '(';
+    public static final char REPEAT_CHAR = ':';
+    public static final char BAR_CHAR = '|';
+    public static final char BROKEN_RHYTHM_FORWARD = '<';
+    public static final char BROKEN_RHYTHM_BACK = '>';
 
     // Characters that denote the start of a new entity.
     public static final Set<Character> NEW_ENTITY_CHARS = Stream.of('a', 'b', 'c', 'd', 'e', 'f', 'g', 'A', 'B', 'C', 'D', 'E', 'F', 'G', SHARP_CHAR, FLAT_CHAR, NATURAL_CHAR, CHORD_OR_ALT_START_CHAR, REST_CHAR, TUPLET_START_CHAR, BAR_CHAR, REPEAT_CHAR, BROKEN_RHYTHM_FORWARD, BROKEN_RHYTHM_BACK).collect(toSet());
 
-    public static final Double STANDARD_NOTE_DURATION = 0.125; // Eighth note
+    // Primitive checks for the character sets above, used when scanning a line in place.
+    public static boolean isNoteChar(final char c) {
+        return (c >= 'a' && c <= 'g') || (c >= 'A' && c <= 'G');
+    }
+    public static boolean isNumChar(final char c) {
+        return c >= '0' && c <= '9';
+    }
+    public static boolean isAccidentalChar(final char c) {
+        return c == SHARP_CHAR || c == FLAT_CHAR || c == NATURAL_CHAR;
+    }
+    public static boolean isNewEntityChar(final char c) {
+        return isNoteChar(c) || isAccidentalChar(c) || c == CHORD_OR_ALT_START_CHAR || c == REST_CHAR || c == TUPLET_START_CHAR ||
+               c == BAR_CHAR || c == REPEAT_CHAR || c == BROKEN_RHYTHM_FORWARD || c == BROKEN_RHYTHM_BACK;
+    }
+
+    public static final long STANDARD_NOTE_LENGTH = Fraction.of(1, 8); // Eighth note
+    public static final Double STANDARD_NOTE_DURATION = Fraction.toDouble(STANDARD_NOTE_LENGTH);
     public static final Integer STANDARD_TEMPO = 100;
-    public static final Meter STANDARD_METER = new Meter().withBeatsPerMeasure(4).withDuration(4);
+    public static final Meter STANDARD_METER = new Meter(4, 4);
     public static final String STANDARD_VOICE = "Default";
     public static final String STANDARD_COMPOSER = "Unknown";
 
@@ -112,20 +128,44 @@ public class AbcHelper {
         characterToNote.put('g', G);
     }
 
-    // Returns the number of complete chord and note characters in the given list.  Notes inside of chords are not counted.
-    public static int countNotesAndChords(final List<Character> entityChars) {
-        int count = 0;
-        boolean withinChord = false;
-        for (Character c : entityChars) {
-            if (CHORD_OR_ALT_START_CHAR.equals(c)) {
-                withinChord = true;
-            } else if (CHORD_END_CHAR.equals(c)) {
-                count++;
-                withinChord = false;
-            } else if (characterToNote.containsKey(c) && !withinChord) {
-                count++;
-            }
+    // Returns the note enum for a note character, ignoring case.  The character must be a valid note character.
+    public static NoteEnum toNoteEnum(final char c) {
+        switch (Character.toUpperCase(c)) {
+            case 'A': return A;
+            case 'B': return B;
+            case 'C': return C;
+            case 'D': return D;
+            case 'E': return E;
+            case 'F': return F;
+            case 'G': return G;
+            default: throw new IllegalArgumentException("Invalid note");
+        }
+    }
+
+    // Throw an illegal argument if the boolean is true (ie. pass in what you don't want to occur).
+    public static void checkArgument(final boolean argument, final String errorText) {
+        if (argument) {
+            throw new IllegalArgumentException(errorText);
+        }
+    }
+
+    public static boolean isNullOrEmpty(final String string) {
+        return null == string || "".equals(string);
+    }
+
+    public static Integer toValidInteger(final String integerString, final String error) {
+        try {
+            return Integer.valueOf(integerString.trim());
+        } catch(Exception e) {
+            throw new IllegalArgumentException(error);
+        }
+    }
+
+    public static Double toValidDouble(final String doubleString, final String error) {
+        try {
+            return Double.valueOf(doubleString.trim());
+        } catch(Exception e) {
+            throw new IllegalArgumentException(error);
         }
-        return count;
     }
 }
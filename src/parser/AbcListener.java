@@ -0,0 +1,90 @@
+package parser;
+
+import model.MeasureContext;
+import model.entities.AlternateEnding;
+import model.entities.BrokenRhythm;
+import model.entities.Chord;
+import model.entities.Note;
+import model.entities.Rest;
+import model.entities.Tuplet;
+import model.enums.BarLineEnum;
+import parser.enums.AbcHeader;
+
+/**
+ * Receives the contents of an abc file from the AbcParser as it is scanned, in file order.  Only the current line is
+ * held by the parser, so listeners that don't keep what they're given can process files of any size in constant memory.
+ * Every method does nothing by default so implementations only need to override the events they care about.
+ */
+public interface AbcListener {
+
+    /**
+     * Called for each validated header other than a voice, with the text after the header and before any comment.
+     *
+     * @param header the header type.
+     * @param value the header text.
+     */
+    default void onHeader(AbcHeader header, String value) {
+    }
+
+    /**
+     * Called when a voice is declared, and with the default voice name if body lines start before any voice is declared.
+     * Measures reported afterwards belong to this voice until the next call.
+     *
+     * @param voiceName the name of the voice.
+     */
+    default void onVoice(String voiceName) {
+    }
+
+    /**
+     * Called before the first entity of each measure.
+     *
+     * @param index where the measure is in the voice, starting at 1.
+     * @param startLine the bar line before the measure, or null if the previous line didn't end with one.
+     * @param context the tempo, key, meter, and default note duration in effect for the measure.  The same context is
+     *                passed for every measure until one of them changes.
+     */
+    default void onMeasureStart(int index, BarLineEnum startLine, MeasureContext context) {
+    }
+
+    /**
+     * Called when the current measure is marked as the start of an alternate ending.
+     *
+     * @param alternateEnding the alternate ending.
+     */
+    default void onAlternateEnding(AlternateEnding alternateEnding) {
+    }
+
+    default void onNote(Note note) {
+    }
+
+    default void onRest(Rest rest) {
+    }
+
+    default void onChord(Chord chord) {
+    }
+
+    default void onTuplet(Tuplet tuplet) {
+    }
+
+    /**
+     * Called for each broken rhythm.  The multipliers have already been applied to the surrounding notes or chords.
+     *
+     * @param brokenRhythm the broken rhythm.
+     */
+    default void onBrokenRhythm(BrokenRhythm brokenRhythm) {
+    }
+
+    /**
+     * Called after the last entity of each measure.
+     *
+     * @param endLine the bar line after the measure, or null if the line ended without one.
+     */
+    default void onMeasureEnd(BarLineEnum endLine) {
+    }
+
+    /**
+     * Called once the whole file has been read successfully.
+     */
+    default void onEnd() {
+    }
+}
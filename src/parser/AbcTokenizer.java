@@ -0,0 +1,365 @@
+package parser;
+
+import model.Fraction;
+import model.Interner;
+import model.entities.AlternateEnding;
+import model.entities.BarLine;
+import model.entities.BrokenRhythm;
+import model.entities.Chord;
+import model.entities.MeasureEntity;
+import model.entities.Note;
+import model.entities.Rest;
+import model.entities.Tuplet;
+import model.enums.Accidental;
+import model.enums.BarLineEnum;
+import model.enums.MeasureEntityEnum;
+import model.enums.NoteEnum;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static model.enums.BarLineEnum.REPEAT_END;
+import static model.enums.BarLineEnum.REPEAT_START;
+import static model.enums.BarLineEnum.SECTION_END;
+import static model.enums.BarLineEnum.STANDARD;
+import static model.enums.MeasureEntityEnum.ALTERNATE_ENDING;
+import static model.enums.MeasureEntityEnum.BAR;
+import static model.enums.MeasureEntityEnum.BROKEN_RHYTHM;
+import static model.enums.MeasureEntityEnum.CHORD;
+import static model.enums.MeasureEntityEnum.NOTE;
+import static model.enums.MeasureEntityEnum.REST;
+import static model.enums.MeasureEntityEnum.TUPLET;
+import static parser.AbcHelper.*;
+
+/**
+ * Converts a line of abc body notation into measure entities.  The line is copied once into a reusable character buffer
+ * and then scanned in place using indexes into that buffer, so the only objects created are the entities themselves.
+ * Instances hold scanning state and should not be shared between threads.
+ */
+public class AbcTokenizer {
+
+    // Shares one instance between entities that are the same.
+    private final Interner interner;
+
+    // The characters of the line currently being tokenized, without whitespace.  Grown as needed and reused between lines.
+    private char[] buffer = new char[256];
+
+    // The position of the next unread character when converting a range of the buffer into an entity.
+    private int cursor;
+
+    // The number of complete notes and chords read so far for the entity being scanned, and whether the last read
+    // character was inside a chord.  Updated as each character is read so entity boundaries are found in constant time.
+    private int noteCount;
+    private boolean withinChord;
+
+    public AbcTokenizer() {
+        this(Interner.NONE);
+    }
+
+    /**
+     * @param interner shares one instance between entities that are the same, including between lines.
+     */
+    public AbcTokenizer(final Interner interner) {
+        this.interner = interner;
+    }
+
+    // Parses the characters in the line for a list of matching entities.
+    public List<MeasureEntity> toEntities(final CharSequence line) {
+        return toEntities(0, compact(line));
+    }
+
+    // Copies the line into the buffer with surrounding whitespace and inner spaces removed.  Returns the number of characters copied.
+    private int compact(final CharSequence line) {
+        int start = 0;
+        int end = line.length();
+        while (start < end && line.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && line.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        if (buffer.length < end - start) {
+            buffer = new char[Math.max(end - start, buffer.length * 2)];
+        }
+        int length = 0;
+        for (int i = start; i < end; i++) {
+            final char c = line.charAt(i);
+            if (' ' != c) {
+                buffer[length++] = c;
+            }
+        }
+        return length;
+    }
+
+    // Parses the buffer between start (inclusive) and end (exclusive) for a list of matching entities.
+    private List<MeasureEntity> toEntities(final int start, final int end) {
+        final List<MeasureEntity> entities = new ArrayList<>();
+        int index = start;
+        while (index < end) {
+            // Get the first character of an entity and determine it's type.
+            final int entityStart = index;
+            noteCount = 0;
+            withinChord = false;
+            countNoteOrChord(buffer[index]);
+            MeasureEntityEnum type = getType(buffer[index++]);
+            // Read ahead for the rest of the entity characters.
+            while (index < end) {
+                final char next = buffer[index];
+                // Special case to handle alternate endings.
+                if (type == CHORD && isNumChar(next) && index - entityStart == 1) {
+                    type = ALTERNATE_ENDING;
+                    index++;
+                    break;
+                }
+                if (isNewEntity(next, entityStart, index, type)) {
+                    break;
+                }
+                countNoteOrChord(next);
+                index++;
+            }
+            // Construct the range of characters into the entity.
+            // Chords and tuplets are built from entities that were interned already, so they compare quickly.
+            entities.add(interner.intern(toEntity(entityStart, index, type)));
+        }
+        return entities;
+    }
+
+    // Updates the note and chord count with the next character of the entity.  Notes inside of chords are not counted.
+    private void countNoteOrChord(final char c) {
+        if (CHORD_OR_ALT_START_CHAR == c) {
+            withinChord = true;
+        } else if (CHORD_END_CHAR == c) {
+            noteCount++;
+            withinChord = false;
+        } else if (isNoteChar(c) && !withinChord) {
+            noteCount++;
+        }
+    }
+
+    private MeasureEntityEnum getType(final char c) {
+        // Notes can start with the raw note or an accidental (ex. B,,,2  G/2  ^F)
+        if (isNoteChar(c) || isAccidentalChar(c)) {
+            return NOTE;
+        }
+        // Chords and alternate endings both start with '[', return CHORD for now and update once we have more characters.
+        if (CHORD_OR_ALT_START_CHAR == c) {
+            return CHORD;
+        }
+        // Rests always start with 'z'.
+        if (REST_CHAR == c) {
+            return REST;
+        }
+        // Tuplets always start with '('.
+        if (TUPLET_START_CHAR == c) {
+            return TUPLET;
+        }
+        // Bars can start with ':' or '|'.
+        if (BAR_CHAR == c || REPEAT_CHAR == c) {
+            return BAR;
+        }
+        // Broken rhythm's start with '<' or '>'
+        if (BROKEN_RHYTHM_BACK == c || BROKEN_RHYTHM_FORWARD == c) {
+            return BROKEN_RHYTHM;
+        }
+        throw new IllegalArgumentException(String.format("Invalid character '%s'", c));
+    }
+
+    // Returns true if the next character does not belong to the entity started at start and read up to index.
+    // Only light validation is done here.  The heavy lifting occurs when trying to convert a range of characters into an entity.
+    private boolean isNewEntity(final char next, final int start, final int index, final MeasureEntityEnum type) {
+        switch(type) {
+            case NOTE:
+                // Return true if the actual note has been reached and next is the start of a new entity.
+                return noteCount == 1 && isNewEntityChar(next);
+            case REST:
+                // Return true if next is the start of a new entity.
+                return isNewEntityChar(next);
+            case CHORD:
+                // Return true if we've reached the ']' part of the chord.
+                return noteCount == 1;
+            case TUPLET:
+                // Return true if the stated number of notes/chords have been defined.
+                if (index - start == 1) {
+                    if (!isNumChar(next)) {
+                        throw new IllegalArgumentException(String.format("Invalid characters '%s'", new String(buffer, start, index - start + 1)));
+                    }
+                    return false;
+                }
+                return noteCount == buffer[start + 1] - '0' && isNewEntityChar(next);
+            case BAR:
+                // Bars can be at most 2 characters consisting of '|', ':', and ']'.
+                final boolean isBarChar = BAR_CHAR == next || REPEAT_CHAR == next || CHORD_END_CHAR == next;
+                if (index - start == 1) {
+                    return !isBarChar;
+                }
+                if (isBarChar) {
+                    throw new IllegalArgumentException(String.format("Invalid character '%s' following characters '%s'", next, new String(buffer, start, 2)));
+                }
+                return true;
+            case BROKEN_RHYTHM:
+                if (next == BROKEN_RHYTHM_BACK || next == BROKEN_RHYTHM_FORWARD) {
+                    checkArgument(next != buffer[start], "Invalid broken rhythm.");
+                    return false;
+                }
+                return true;
+            default:
+                throw new IllegalArgumentException("Unknown type: " +type);
+        }
+    }
+
+    // Construct the appropriate entity from the characters between start (inclusive) and end (exclusive).
+    private MeasureEntity toEntity(final int start, final int end, final MeasureEntityEnum type) {
+        switch(type) {
+            case NOTE:
+                cursor = start;
+                final Note.Builder note = new Note.Builder()
+                        .withAccidental(getAccidental(end))
+                        .withNoteEnum(getNoteEnum(end));
+                final char noteChar = buffer[cursor++];
+                if (cursor < end) {
+                    // The provided examples had these in two different orders, must account for both.
+                    if (SLASH_CHAR == buffer[cursor] || isNumChar(buffer[cursor])) {
+                        note.withMultiplier(getMultiplier(end)).
+                             withOctave(getOctave(end, noteChar));
+                    } else {
+                        note.withOctave(getOctave(end, noteChar)).
+                             withMultiplier(getMultiplier(end));
+                    }
+                } else {
+                    note.withOctave(getOctave(end, noteChar));
+                }
+                checkRemaining(start, end);
+                return note.build();
+            case REST:
+                cursor = start + 1; // Skip the 'z'
+                final Rest rest = new Rest.Builder().withMultiplier(getMultiplier(end)).build();
+                checkRemaining(start, end);
+                return rest;
+            case CHORD:
+                checkArgument(CHORD_OR_ALT_START_CHAR != buffer[start] || CHORD_END_CHAR != buffer[end - 1] || end - start < 3, "Chord is invalid");
+                // Skip the brackets and turn the remaining characters into a list of note entities.
+                final List<MeasureEntity> chordEntities = toEntities(start + 1, end - 1);
+                final List<Note> notes = new ArrayList<>(chordEntities.size());
+                for (MeasureEntity entity : chordEntities) {
+                    checkArgument(!(entity instanceof Note), "Chord is invalid.");
+                    notes.add((Note) entity);
+                }
+                return new Chord.Builder().withMultiplier(notes.get(0).getMultiplier()).withNotes(notes).build();
+            case TUPLET:
+                checkArgument(end - start < 2 || TUPLET_START_CHAR != buffer[start] || !isNumChar(buffer[start + 1]), "Tuplet is invalid.");
+                final int entityCount = buffer[start + 1] - '0';
+                final List<MeasureEntity> entities = toEntities(start + 2, end);
+                checkArgument(entities.size() != entityCount, "Tuplet is invalid");
+                // A tuplet's duration is either 2 notes over 3 beats, 3 notes over 2 beats, or 4 notes over 3 beats.
+                return new Tuplet.Builder().withMultiplier(Fraction.of(3 == entities.size() ? 2 : 3, 1)).withEntities(entities).build();
+            case BAR:
+                final BarLineEnum barLineEnum = end - start == 1 ? STANDARD :
+                        REPEAT_CHAR == buffer[start] && BAR_CHAR == buffer[start + 1] ? REPEAT_END :
+                        BAR_CHAR == buffer[start] && REPEAT_CHAR == buffer[start + 1] ? REPEAT_START :
+                        BAR_CHAR == buffer[start] && CHORD_END_CHAR == buffer[start + 1] ? SECTION_END :
+                        BAR_CHAR == buffer[start] && BAR_CHAR == buffer[start + 1] ? SECTION_END : null;
+                if (null == barLineEnum) {
+                    throw new IllegalArgumentException(String.format("%s is invalid.", new String(buffer, start, end - start)));
+                }
+                return new BarLine.Builder().withType(barLineEnum).build();
+            case ALTERNATE_ENDING:
+                return new AlternateEnding.Builder().withEndingIndex(buffer[start + 1] - '0').build();
+            case BROKEN_RHYTHM:
+                checkArgument(end - start >= Integer.SIZE - 1, "Invalid Broken Rhythm");
+                final long denominator = 1L << (end - start);
+                final long multiplier = Fraction.of(1, denominator); // 1/2 for one, 1/4 for 2. 1/8 for 3, etc.
+                final long remainder = Fraction.of(2 * denominator - 1, denominator);
+                return new BrokenRhythm.Builder()
+                        .withFirstNoteMultiplier(buffer[start] == BROKEN_RHYTHM_FORWARD ? multiplier : remainder) // forward means the first note is short.
+                        .withSecondNoteMultiplier(buffer[start] == BROKEN_RHYTHM_BACK ? multiplier : remainder)
+                        .build();
+            default:
+                throw new IllegalArgumentException("Unknown type: " +type);
+        }
+    }
+
+    // Ensure every character of the entity was consumed.
+    private void checkRemaining(final int start, final int end) {
+        if (cursor != end) {
+            throw new IllegalArgumentException("Invalid characters: " + new String(buffer, start, end - start));
+        }
+    }
+
+    // Notes have the following order, Accidental (opt - 1-2 characters), Note (Required - 1 character), Octave (opt - x characters), Duration (opt - x/x characters)
+    // Run through these methods in order with the assumption that the character at the cursor should pertain
+    private Accidental getAccidental(final int end) {
+        final char first = buffer[cursor];
+        if (!isAccidentalChar(first)) {
+            return null;
+        }
+        if (cursor + 1 < end && isAccidentalChar(buffer[cursor + 1])) {
+            final char second = buffer[cursor + 1];
+            cursor += 2;
+            if (SHARP_CHAR == first && SHARP_CHAR == second) {
+                return Accidental.DOUBLE_SHARP;
+            }
+            if (FLAT_CHAR == first && FLAT_CHAR == second) {
+                return Accidental.DOUBLE_FLAT;
+            }
+            throw new IllegalArgumentException("Invalid accidental");
+        }
+        cursor++;
+        return SHARP_CHAR == first ? Accidental.SHARP :
+               FLAT_CHAR == first ? Accidental.FLAT : Accidental.NATURAL;
+    }
+
+    private NoteEnum getNoteEnum(final int end) {
+        checkArgument(cursor == end || !isNoteChar(buffer[cursor]), "Invalid note");
+        return toNoteEnum(buffer[cursor]); // Don't advance past the note so that the octave calculation can use it.
+    }
+
+    // The duration as a packed Fraction.
+    private long getMultiplier(final int end) {
+        if (cursor == end || (SLASH_CHAR != buffer[cursor] && !isNumChar(buffer[cursor]))) {
+            return Fraction.ONE;
+        }
+        int numerator = 1;
+        if (SLASH_CHAR != buffer[cursor]) {
+            numerator = getNumber(end);
+        }
+
+        int denominator = 1;
+        if (cursor < end && SLASH_CHAR == buffer[cursor]) {
+            cursor++;
+            denominator = cursor == end ? 2 : getNumber(end);
+        }
+        checkArgument(0 == denominator, "Invalid duration.");
+        return Fraction.of(numerator, denominator);
+    }
+
+    private int getNumber(final int end) {
+        final int numberStart = cursor;
+        long number = 0;
+        while (cursor < end && isNumChar(buffer[cursor])) {
+            number = number * 10 + (buffer[cursor++] - '0');
+            checkArgument(number > Integer.MAX_VALUE, "Invalid duration.");
+        }
+        checkArgument(cursor == numberStart, "Invalid duration.");
+        return (int) number;
+    }
+
+    private int getOctave(final int end, final char noteChar) {
+        final int octave = Character.isUpperCase(noteChar) ? 0 : 1;
+        int upCount = 0;
+        int downCount = 0;
+        while (cursor < end) {
+            final char next = buffer[cursor];
+            if (OCTAVE_UP_CHAR == next) {
+                upCount++;
+            } else if (OCTAVE_DOWN_CHAR == next) {
+                downCount++;
+            } else {
+                break;
+            }
+            cursor++;
+        }
+        // Don't allow mixtures of the octave chars or the down octave on lower case notes.
+        checkArgument((upCount != 0 && downCount != 0) || (octave == 1 && downCount != 0), "Invalid octave");
+        return octave + upCount - downCount;
+    }
+}
@@ -0,0 +1,101 @@
+package parser;
+
+import model.Interner;
+import model.Song;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static parser.AbcHelper.checkArgument;
+
+/**
+ * Gives random access to the tunes of a large songbook.  The file is memory mapped rather than read, and the location of
+ * each tune comes from a SongbookIndex, so opening a songbook only touches the pages that are needed and parsing a tune
+ * only decodes that tune's bytes.  Tunes can be parsed from several threads at once.
+ */
+public class MappedSongbook {
+
+    // The name of the songbook file, used in error messages.
+    private final String fileName;
+
+    // The whole songbook.  The mapping stays valid after the channel that created it is closed.
+    private final MappedByteBuffer contents;
+
+    // The character set the songbook is written in.
+    private final Charset charset;
+
+    // Where each tune is in the songbook.
+    private final SongbookIndex index;
+
+    // Shares one instance between the notes, chords, meters, and measures repeated across the songbook's tunes.
+    private final Interner interner = new Interner();
+
+    // Parses each tune.  Progress isn't printed since tunes may be parsed in bulk.
+    private final AbcParser parser = new AbcParser(false, interner);
+
+    private MappedSongbook(final String fileName, final MappedByteBuffer contents, final Charset charset, final SongbookIndex index) {
+        this.fileName = fileName;
+        this.contents = contents;
+        this.charset = charset;
+        this.index = index;
+    }
+
+    /**
+     * Maps the songbook and loads its index, building and saving the index first if it is missing or out of date.
+     *
+     * @param fileName the name of the songbook file.
+     * @return the opened songbook.
+     */
+    public static MappedSongbook open(final String fileName) throws IOException {
+        final Path path = Paths.get(fileName);
+        final Charset charset = Charset.defaultCharset();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            checkArgument(channel.size() > Integer.MAX_VALUE, "Songbook is too large to map.");
+            final MappedByteBuffer contents = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new MappedSongbook(fileName, contents, charset, SongbookIndex.open(path, contents, charset));
+        }
+    }
+
+    /**
+     * @return every tune in the songbook, in the order they appear in the file.
+     */
+    public List<TuneEntry> getTunes() {
+        return index.getTunes();
+    }
+
+    /**
+     * Parses a single tune.
+     *
+     * @param position where the tune is in the songbook, starting at 1.
+     * @return the parsed song.
+     */
+    public Song parse(final int position) throws IOException {
+        checkArgument(position < 1 || position > getTunes().size(), String.format("No tune at position %s.", position));
+        return parse(getTunes().get(position - 1));
+    }
+
+    /**
+     * Parses a single tune.
+     *
+     * @param tune the tune, from this songbook's index.
+     * @return the parsed song.
+     */
+    public Song parse(final TuneEntry tune) throws IOException {
+        // Work on a duplicate so tunes can be decoded from several threads without sharing a position.
+        final ByteBuffer bytes = contents.duplicate();
+        bytes.limit((int) (tune.getOffset() + tune.getLength())).position((int) tune.getOffset());
+        final SongBuilder builder = new SongBuilder(false, interner);
+        parser.parse(new BufferedReader(new StringReader(charset.decode(bytes).toString())),
+                String.format("%s (offset %s)", fileName, tune.getOffset()), builder);
+        return builder.getSong();
+    }
+}
@@ -0,0 +1,48 @@
+package parser;
+
+import model.Song;
+
+/**
+ * The outcome of parsing one tune from a songbook.  Holds either the parsed song or the error that stopped it.
+ */
+public class ParsedTune {
+
+    // Where the tune is in the songbook, starting at 1.
+    private final int position;
+
+    // The line of the songbook that the tune's "X:" header is on, starting at 1.
+    private final int lineNumber;
+
+    // The parsed song, or null if the tune couldn't be parsed.
+    private final Song song;
+
+    // Why the tune couldn't be parsed, or null if it was parsed.
+    private final Exception error;
+
+    public ParsedTune(final int position, final int lineNumber, final Song song, final Exception error) {
+        this.position = position;
+        this.lineNumber = lineNumber;
+        this.song = song;
+        this.error = error;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    public Song getSong() {
+        return song;
+    }
+
+    public Exception getError() {
+        return error;
+    }
+
+    public boolean isValid() {
+        return null == error;
+    }
+}
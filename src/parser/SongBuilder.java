@@ -0,0 +1,202 @@
+package parser;
+
+import model.Fraction;
+import model.Interner;
+import model.Measure;
+import model.MeasureContext;
+import model.Song;
+import model.Voice;
+import model.entities.AlternateEnding;
+import model.entities.BrokenRhythm;
+import model.entities.Chord;
+import model.entities.Note;
+import model.entities.Rest;
+import model.entities.Tuplet;
+import model.enums.BarLineEnum;
+import parser.enums.AbcHeader;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static parser.AbcHelper.*;
+
+/**
+ * Listens to the AbcParser and assembles everything it reports into a Song.  The song is built once the parser reaches
+ * the end of the file, and can't be changed after that.
+ */
+public class SongBuilder implements AbcListener {
+
+    private final Song.Builder builder = new Song.Builder().withComposer(STANDARD_COMPOSER);
+
+    // The voices being built, mapped by their name.
+    private final Map<String, Voice.Builder> voices = new HashMap<>();
+
+    // The song, once the end of the file has been reached.
+    private Song song;
+
+    // Whether progress is printed to the console as the song is built.
+    private final boolean verbose;
+
+    // Shares one list of entities between measures that play the same.
+    private final Interner interner;
+
+    // The voice that measures are currently being added to.
+    private Voice.Builder voice;
+
+    // The measure that entities are currently being added to.
+    private Measure.Builder current;
+
+    public SongBuilder() {
+        this(true);
+    }
+
+    /**
+     * @param verbose whether to print progress to the console.
+     */
+    public SongBuilder(final boolean verbose) {
+        this(verbose, Interner.NONE);
+    }
+
+    /**
+     * @param verbose whether to print progress to the console.
+     * @param interner shares one list of entities between measures that play the same, in this and every other song
+     *                 built with it.
+     */
+    public SongBuilder(final boolean verbose, final Interner interner) {
+        this.verbose = verbose;
+        this.interner = interner;
+    }
+
+    /**
+     * @return the song built from everything the parser reported.
+     * @throws IllegalStateException if the parser hasn't reached the end of the file.
+     */
+    public Song getSong() {
+        if (null == song) {
+            throw new IllegalStateException("The song isn't finished yet.");
+        }
+        return song;
+    }
+
+    @Override
+    public void onHeader(final AbcHeader header, final String value) {
+        switch(header) {
+            case INDEX:
+                builder.withIndex(toValidInteger(value, String.format("%s is invalid.", header)));
+                log("Set index to " + builder.getIndex());
+                break;
+            case TITLE:
+                // Concatenate multiple title's together.
+                if (isNullOrEmpty(builder.getTitle())) {
+                    builder.withTitle(value);
+                } else {
+                    builder.withTitle(String.format("%s %s", builder.getTitle(), value));
+                }
+                log("Set title to " + builder.getTitle());
+                break;
+            case COMPOSER:
+                // Concatenate multiple composer's together.
+                if (isNullOrEmpty(builder.getComposer()) || STANDARD_COMPOSER.equals(builder.getComposer())) {
+                    builder.withComposer(value);
+                } else {
+                    builder.withComposer(String.format("%s %s", builder.getComposer(), value));
+                }
+                log("Set composer to " + builder.getComposer());
+                break;
+            default:
+                // Tempo, key, meter, and duration are picked up from the tracker as each measure starts.
+                break;
+        }
+    }
+
+    @Override
+    public void onVoice(final String voiceName) {
+        // Add the voice to the song if it doesn't already exist.
+        voice = voices.get(voiceName);
+        if (null == voice) {
+            voice = new Voice.Builder();
+            voices.put(voiceName, voice);
+            log("Adding voice " + voiceName);
+        } else {
+            log("Adding measures to voice " + voiceName);
+        }
+    }
+
+    @Override
+    public void onMeasureStart(final int index, final BarLineEnum startLine, final MeasureContext tracker) {
+        final Measure.Builder previous = voice.getLastMeasure();
+        current = new Measure.Builder().withIndex(index).withStartLine(startLine).withInterner(interner);
+        // Pick up where we left off or start fresh with the settings from the tracker.
+        // If any settings changed since the last measure, record them here as well.
+        if (null != previous) {
+            final MeasureContext context = previous.getContext();
+            current.withTempo(!context.getTempo().equals(tracker.getTempo()) ? tracker.getTempo() : null)
+                    .withKey(!context.getKey().equals(tracker.getKey()) ? tracker.getKey() : null)
+                    .withMeter(!context.getMeter().equals(tracker.getMeter()) ? tracker.getMeter() : null)
+                    .withNoteLength(context.getNoteLength() != tracker.getNoteLength() ? tracker.getNoteLength() : Fraction.NONE)
+                    .withContext(context.with(tracker.getTempo(), tracker.getKey(), tracker.getMeter(), tracker.getNoteLength()));
+        } else {
+            current.withTempo(tracker.getTempo())
+                    .withKey(tracker.getKey())
+                    .withMeter(tracker.getMeter())
+                    .withNoteLength(tracker.getNoteLength())
+                    .withContext(tracker);
+        }
+        voice.addMeasure(current);
+    }
+
+    @Override
+    public void onAlternateEnding(final AlternateEnding alternateEnding) {
+        current.withAlternateEnding(alternateEnding);
+    }
+
+    @Override
+    public void onNote(final Note note) {
+        current.addEntity(note);
+    }
+
+    @Override
+    public void onRest(final Rest rest) {
+        current.addEntity(rest);
+    }
+
+    @Override
+    public void onChord(final Chord chord) {
+        current.addEntity(chord);
+    }
+
+    @Override
+    public void onTuplet(final Tuplet tuplet) {
+        current.addEntity(tuplet);
+    }
+
+    @Override
+    public void onBrokenRhythm(final BrokenRhythm brokenRhythm) {
+        current.addEntity(brokenRhythm);
+    }
+
+    @Override
+    public void onMeasureEnd(final BarLineEnum endLine) {
+        current.withEndLine(endLine);
+        // A bar line opens the next measure, so link to it straight away.  This lets players follow a repeat at the very
+        // end of a voice.  The link is replaced if the voice continues.
+        if (null != endLine) {
+            voice.withNextMeasure(new Measure.Builder().withIndex(current.getIndex() + 1).withContext(current.getContext()).withStartLine(endLine).withInterner(interner));
+        }
+        current = null;
+    }
+
+    @Override
+    public void onEnd() {
+        // The measures are complete, so build each voice, working out its play order once up front.
+        voices.forEach((name, voice) -> builder.withVoice(name, voice.build()));
+        song = builder.build();
+        log("Parsed " + song.getVoices().size() + " voices with " + (null != voice ? voice.getMeasureCount() : 0) + " measures per voice.");
+    }
+
+    private void log(final String message) {
+        if (verbose) {
+            System.out.println(message);
+        }
+    }
+}
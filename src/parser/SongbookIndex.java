@@ -0,0 +1,246 @@
+package parser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static parser.AbcHelper.COMMENT_CHAR;
+
+/**
+ * The byte offset, length, and catalogue headers of every tune in a songbook.  The index is stored in a sidecar file
+ * next to the songbook along with the songbook's size and modification time, so later opens don't have to scan it.
+ * When the songbook changes only the part after the last unchanged tune is rescanned, which makes appending tunes to a
+ * large archive cheap.
+ */
+public class SongbookIndex {
+
+    // Added to the songbook's file name to get the sidecar file name.
+    public static final String SIDECAR_EXTENSION = ".idx";
+
+    // Identifies a sidecar file and the version of its layout.
+    private static final int MAGIC = 0x41424349; // "ABCI"
+    private static final int VERSION = 1;
+
+    // The size and modification time of the songbook when it was indexed.
+    private final long fileSize;
+    private final long lastModified;
+
+    // A checksum of every byte before the last tune.  If that part of the songbook is unchanged, only the last tune
+    // onwards needs to be scanned again.
+    private final long prefixChecksum;
+
+    // The tunes in file order.
+    private final List<TuneEntry> tunes;
+
+    private SongbookIndex(final long fileSize, final long lastModified, final long prefixChecksum, final List<TuneEntry> tunes) {
+        this.fileSize = fileSize;
+        this.lastModified = lastModified;
+        this.prefixChecksum = prefixChecksum;
+        this.tunes = Collections.unmodifiableList(tunes);
+    }
+
+    public List<TuneEntry> getTunes() {
+        return tunes;
+    }
+
+    /**
+     * Loads the index for the songbook from its sidecar file, bringing it up to date and saving it first if the songbook
+     * has changed or hasn't been indexed yet.
+     *
+     * @param songbook the songbook file.
+     * @param contents the full contents of the songbook, usually memory mapped.
+     * @param charset the songbook's character set, used to read header values.
+     * @return the index of the songbook.
+     */
+    public static SongbookIndex open(final Path songbook, final ByteBuffer contents, final Charset charset) throws IOException {
+        final long fileSize = contents.limit();
+        final long lastModified = Files.getLastModifiedTime(songbook).toMillis();
+        final Path sidecar = songbook.resolveSibling(songbook.getFileName() + SIDECAR_EXTENSION);
+
+        final SongbookIndex existing = read(sidecar);
+        if (null != existing && existing.fileSize == fileSize && existing.lastModified == lastModified) {
+            return existing;
+        }
+
+        // Keep every tune but the last if nothing before the last tune has changed, since the last one may have grown.
+        final List<TuneEntry> tunes = new ArrayList<>();
+        final CRC32 checksum = new CRC32();
+        int scanFrom = 0;
+        if (null != existing && !existing.tunes.isEmpty()) {
+            final int prefixEnd = (int) getPrefixEnd(existing.tunes);
+            if (prefixEnd <= fileSize) {
+                update(checksum, contents, 0, prefixEnd);
+                if (checksum.getValue() == existing.prefixChecksum) {
+                    tunes.addAll(existing.tunes.subList(0, existing.tunes.size() - 1));
+                    scanFrom = prefixEnd;
+                } else {
+                    checksum.reset();
+                }
+            }
+        }
+        scan(contents, scanFrom, charset, tunes);
+
+        update(checksum, contents, scanFrom, (int) getPrefixEnd(tunes));
+        final SongbookIndex index = new SongbookIndex(fileSize, lastModified, checksum.getValue(), tunes);
+        try {
+            index.write(sidecar);
+        } catch (IOException e) {
+            // The index still works for this open, it just has to be rebuilt next time.
+            System.out.println(String.format("Unable to save index '%s': %s.", sidecar, e.getMessage()));
+        }
+        return index;
+    }
+
+    // Where the last tune starts, or 0 if there are no tunes.
+    private static long getPrefixEnd(final List<TuneEntry> tunes) {
+        return tunes.isEmpty() ? 0 : tunes.get(tunes.size() - 1).getOffset();
+    }
+
+    private static void update(final CRC32 checksum, final ByteBuffer contents, final int start, final int end) {
+        final ByteBuffer range = contents.duplicate();
+        range.limit(end).position(start);
+        checksum.update(range);
+    }
+
+    // Scans the contents from the given offset, adding an entry for every tune found.  Offset must be at a line start.
+    private static void scan(final ByteBuffer contents, final int from, final Charset charset, final List<TuneEntry> tunes) {
+        final int limit = contents.limit();
+        TuneEntry current = null;
+        // Catalogue headers are only read up to the key, which ends the header of a tune.
+        boolean inHeader = false;
+        int lineStart = from;
+        while (lineStart < limit) {
+            int lineEnd = lineStart;
+            while (lineEnd < limit && '\n' != contents.get(lineEnd)) {
+                lineEnd++;
+            }
+            int first = lineStart;
+            while (first < lineEnd && (' ' == contents.get(first) || '\t' == contents.get(first))) {
+                first++;
+            }
+            if (first + 1 < lineEnd && ':' == contents.get(first + 1)) {
+                final byte field = contents.get(first);
+                if ('X' == field) {
+                    if (null != current) {
+                        current.setLength(lineStart - current.getOffset());
+                    }
+                    current = new TuneEntry().withOffset(lineStart);
+                    tunes.add(current);
+                    inHeader = true;
+                } else if (null != current && inHeader) {
+                    switch (field) {
+                        case 'T':
+                            current.setTitle(join(current.getTitle(), value(contents, first + 2, lineEnd, charset)));
+                            break;
+                        case 'C':
+                            current.setComposer(join(current.getComposer(), value(contents, first + 2, lineEnd, charset)));
+                            break;
+                        case 'M':
+                            current.setMeter(value(contents, first + 2, lineEnd, charset));
+                            break;
+                        case 'K':
+                            current.setKey(value(contents, first + 2, lineEnd, charset));
+                            inHeader = false;
+                            break;
+                        default:
+                            break;
+                    }
+                }
+            }
+            lineStart = lineEnd + 1;
+        }
+        if (null != current) {
+            current.setLength(limit - current.getOffset());
+        }
+    }
+
+    // Decode the header text between start and end, dropping any comment.
+    private static String value(final ByteBuffer contents, final int start, final int end, final Charset charset) {
+        final byte[] bytes = new byte[end - start];
+        final ByteBuffer range = contents.duplicate();
+        range.position(start);
+        range.get(bytes);
+        final String value = new String(bytes, charset);
+        final int commentIndex = value.indexOf(COMMENT_CHAR);
+        return (-1 == commentIndex ? value : value.substring(0, commentIndex)).trim();
+    }
+
+    private static String join(final String existing, final String value) {
+        return null == existing ? value : existing + " " + value;
+    }
+
+    // Reads the sidecar file, returning null if it doesn't exist or can't be read.
+    private static SongbookIndex read(final Path sidecar) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(sidecar)))) {
+            if (MAGIC != in.readInt() || VERSION != in.readInt()) {
+                return null;
+            }
+            final long fileSize = in.readLong();
+            final long lastModified = in.readLong();
+            final long prefixChecksum = in.readLong();
+            final int count = in.readInt();
+            final List<TuneEntry> tunes = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                tunes.add(new TuneEntry()
+                        .withOffset(in.readLong())
+                        .withLength(in.readLong())
+                        .withTitle(readString(in))
+                        .withComposer(readString(in))
+                        .withKey(readString(in))
+                        .withMeter(readString(in)));
+            }
+            return new SongbookIndex(fileSize, lastModified, prefixChecksum, tunes);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            System.out.println(String.format("Ignoring unreadable index '%s': %s.", sidecar, e.getMessage()));
+            return null;
+        }
+    }
+
+    // Writes to a temporary file first so that a reader never sees a partly written index.
+    private void write(final Path sidecar) throws IOException {
+        final Path temp = sidecar.resolveSibling(sidecar.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(fileSize);
+            out.writeLong(lastModified);
+            out.writeLong(prefixChecksum);
+            out.writeInt(tunes.size());
+            for (TuneEntry tune : tunes) {
+                out.writeLong(tune.getOffset());
+                out.writeLong(tune.getLength());
+                writeString(out, tune.getTitle());
+                writeString(out, tune.getComposer());
+                writeString(out, tune.getKey());
+                writeString(out, tune.getMeter());
+            }
+        }
+        Files.move(temp, sidecar, REPLACE_EXISTING, ATOMIC_MOVE);
+    }
+
+    private static String readString(final DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeString(final DataOutputStream out, final String value) throws IOException {
+        out.writeBoolean(null != value);
+        if (null != value) {
+            out.writeUTF(value);
+        }
+    }
+}
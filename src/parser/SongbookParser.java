@@ -0,0 +1,147 @@
+package parser;
+
+import model.Interner;
+import model.Song;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Parses songbooks, abc files holding any number of tunes that each start with an "X:" header.  The file is split on
+ * those headers and every tune is parsed on its own, in parallel on a fork/join pool.  Anything before the first tune
+ * is treated as a file header and ignored.
+ */
+public class SongbookParser {
+
+    // Runs the per tune parsing.
+    private final ForkJoinPool pool;
+
+    public SongbookParser() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param pool the pool to parse tunes on.
+     */
+    public SongbookParser(final ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Parses every tune in the songbook.  A tune that fails to parse is returned with its error and doesn't stop the rest.
+     *
+     * @param fileName the name of the songbook file.
+     * @return the result for each tune, in the order they appear in the file.
+     */
+    public List<ParsedTune> parse(final String fileName) throws IOException {
+        return parseText(new String(Files.readAllBytes(Paths.get(fileName)), Charset.defaultCharset()), fileName);
+    }
+
+    /**
+     * Parses every tune in the songbook, keeping only the tunes that parsed successfully.
+     *
+     * @param fileName the name of the songbook file.
+     * @return the songs in the order they appear in the file.
+     */
+    public List<Song> parseSongs(final String fileName) throws IOException {
+        return parse(fileName).stream().filter(ParsedTune::isValid).map(ParsedTune::getSong).collect(toList());
+    }
+
+    /**
+     * Parses every tune in the given songbook text.
+     *
+     * @param text the contents of the songbook.
+     * @param name describes where the text came from, used in error messages.
+     * @return the result for each tune, in the order they appear in the text.
+     */
+    public List<ParsedTune> parseText(final String text, final String name) {
+        final List<TuneRange> tunes = split(text);
+        // Shares one instance between the notes, chords, meters, and measures repeated across the songbook's tunes.  A
+        // songbook gets an interner of its own, so nothing is kept once its songs are no longer used.
+        final Interner interner = new Interner();
+        // Parses each tune.  Progress isn't printed since thousands of tunes may be parsed at once.
+        final AbcParser parser = new AbcParser(false, interner);
+        try {
+            // Parallel streams keep encounter order, and run in whichever pool they are started from.
+            return pool.submit(() -> IntStream.range(0, tunes.size()).parallel()
+                    .mapToObj(i -> parseTune(parser, interner, text, name, i + 1, tunes.get(i)))
+                    .collect(toList())).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while parsing " + name, e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Unable to parse " + name, e.getCause());
+        }
+    }
+
+    // Finds where each tune starts and ends.
+    private List<TuneRange> split(final String text) {
+        final List<TuneRange> tunes = new ArrayList<>();
+        int lineStart = 0;
+        int lineNumber = 1;
+        while (lineStart < text.length()) {
+            int lineEnd = text.indexOf('\n', lineStart);
+            lineEnd = -1 == lineEnd ? text.length() : lineEnd + 1;
+            if (isTuneStart(text, lineStart, lineEnd)) {
+                if (!tunes.isEmpty()) {
+                    tunes.get(tunes.size() - 1).end = lineStart;
+                }
+                tunes.add(new TuneRange(lineStart, text.length(), lineNumber));
+            }
+            lineStart = lineEnd;
+            lineNumber++;
+        }
+        return tunes;
+    }
+
+    // A tune starts at any line whose first non whitespace characters are "X:".
+    private boolean isTuneStart(final String text, final int lineStart, final int lineEnd) {
+        int index = lineStart;
+        while (index < lineEnd && Character.isWhitespace(text.charAt(index))) {
+            index++;
+        }
+        return index + 2 <= lineEnd && text.startsWith("X:", index);
+    }
+
+    private ParsedTune parseTune(final AbcParser parser, final Interner interner, final String text, final String name,
+                                 final int position, final TuneRange tune) {
+        final String tuneName = String.format("%s (tune %s, line %s)", name, position, tune.lineNumber);
+        try {
+            final SongBuilder builder = new SongBuilder(false, interner);
+            parser.parse(new BufferedReader(new StringReader(text.substring(tune.start, tune.end))), tuneName, builder);
+            return new ParsedTune(position, tune.lineNumber, builder.getSong(), null);
+        } catch (Exception e) {
+            return new ParsedTune(position, tune.lineNumber, null, e);
+        }
+    }
+
+    // Where a single tune sits in the songbook text.
+    private static class TuneRange {
+
+        // The offset of the tune's first character.
+        private final int start;
+
+        // The offset just past the tune's last character.
+        private int end;
+
+        // The line the tune starts on, starting at 1.
+        private final int lineNumber;
+
+        private TuneRange(final int start, final int end, final int lineNumber) {
+            this.start = start;
+            this.end = end;
+            this.lineNumber = lineNumber;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package parser;
+
+/**
+ * Describes where a single tune sits in a songbook file along with the headers needed to catalogue it.
+ */
+public class TuneEntry {
+
+    // The byte offset of the tune's "X:" line in the file.
+    private long offset;
+
+    // The number of bytes in the tune, up to the next tune or the end of the file.
+    private long length;
+
+    // The tune's title, with multiple titles joined together.
+    private String title;
+
+    // The tune's composer, with multiple composers joined together.
+    private String composer;
+
+    // The key the tune starts in, as written in the file.
+    private String key;
+
+    // The meter the tune starts in, as written in the file.
+    private String meter;
+
+    public long getOffset() {
+        return offset;
+    }
+    public void setOffset(long offset) {
+        this.offset = offset;
+    }
+
+    public long getLength() {
+        return length;
+    }
+    public void setLength(long length) {
+        this.length = length;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+    public void setTitle(String title) {
+        this.title = title;
+    }
+
+    public String getComposer() {
+        return composer;
+    }
+    public void setComposer(String composer) {
+        this.composer = composer;
+    }
+
+    public String getKey() {
+        return key;
+    }
+    public void setKey(String key) {
+        this.key = key;
+    }
+
+    public String getMeter() {
+        return meter;
+    }
+    public void setMeter(String meter) {
+        this.meter = meter;
+    }
+
+    public TuneEntry withOffset(final long offset) {
+        setOffset(offset);
+        return this;
+    }
+    public TuneEntry withLength(final long length) {
+        setLength(length);
+        return this;
+    }
+    public TuneEntry withTitle(final String title) {
+        setTitle(title);
+        return this;
+    }
+    public TuneEntry withComposer(final String composer) {
+        setComposer(composer);
+        return this;
+    }
+    public TuneEntry withKey(final String key) {
+        setKey(key);
+        return this;
+    }
+    public TuneEntry withMeter(final String meter) {
+        setMeter(meter);
+        return this;
+    }
+}
@@ -0,0 +1,161 @@
+package parser;
+
+import model.Meter;
+import model.enums.Key;
+
+import java.util.List;
+
+/**
+ * The headers of a single tune, read without parsing its body.  Enough to catalogue the tune without building a Song.
+ */
+public class TuneHeader {
+
+    // Where the tune is in the file, starting at 1.
+    private int position;
+
+    // The line of the file that the tune's "X:" header is on, starting at 1.
+    private int lineNumber;
+
+    // The values of the X, T, and C headers.  Multiple titles and composers are joined together.
+    private Integer index;
+    private String title;
+    private String composer;
+
+    // The settings the tune starts with, from the L, M, Q, and K headers or their defaults.
+    private Double noteDuration;
+    private Meter meter;
+    private Integer tempo;
+    private Key key;
+
+    // The names of the voices used in the tune, in the order they are first declared.
+    private List<String> voiceNames;
+
+    // Why the headers are invalid, or null if they are valid.
+    private Exception error;
+
+    public int getPosition() {
+        return position;
+    }
+    public void setPosition(int position) {
+        this.position = position;
+    }
+
+    public int getLineNumber() {
+        return lineNumber;
+    }
+    public void setLineNumber(int lineNumber) {
+        this.lineNumber = lineNumber;
+    }
+
+    public Integer getIndex() {
+        return index;
+    }
+    public void setIndex(Integer index) {
+        this.index = index;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+    public void setTitle(String title) {
+        this.title = title;
+    }
+
+    public String getComposer() {
+        return composer;
+    }
+    public void setComposer(String composer) {
+        this.composer = composer;
+    }
+
+    public Double getNoteDuration() {
+        return noteDuration;
+    }
+    public void setNoteDuration(Double noteDuration) {
+        this.noteDuration = noteDuration;
+    }
+
+    public Meter getMeter() {
+        return meter;
+    }
+    public void setMeter(Meter meter) {
+        this.meter = meter;
+    }
+
+    public Integer getTempo() {
+        return tempo;
+    }
+    public void setTempo(Integer tempo) {
+        this.tempo = tempo;
+    }
+
+    public Key getKey() {
+        return key;
+    }
+    public void setKey(Key key) {
+        this.key = key;
+    }
+
+    public List<String> getVoiceNames() {
+        return voiceNames;
+    }
+    public void setVoiceNames(List<String> voiceNames) {
+        this.voiceNames = voiceNames;
+    }
+
+    public Exception getError() {
+        return error;
+    }
+    public void setError(Exception error) {
+        this.error = error;
+    }
+
+    public boolean isValid() {
+        return null == error;
+    }
+
+    public TuneHeader withPosition(final int position) {
+        setPosition(position);
+        return this;
+    }
+    public TuneHeader withLineNumber(final int lineNumber) {
+        setLineNumber(lineNumber);
+        return this;
+    }
+    public TuneHeader withIndex(final Integer index) {
+        setIndex(index);
+        return this;
+    }
+    public TuneHeader withTitle(final String title) {
+        setTitle(title);
+        return this;
+    }
+    public TuneHeader withComposer(final String composer) {
+        setComposer(composer);
+        return this;
+    }
+    public TuneHeader withNoteDuration(final Double noteDuration) {
+        setNoteDuration(noteDuration);
+        return this;
+    }
+    public TuneHeader withMeter(final Meter meter) {
+        setMeter(meter);
+        return this;
+    }
+    public TuneHeader withTempo(final Integer tempo) {
+        setTempo(tempo);
+        return this;
+    }
+    public TuneHeader withKey(final Key key) {
+        setKey(key);
+        return this;
+    }
+    public TuneHeader withVoiceNames(final List<String> voiceNames) {
+        setVoiceNames(voiceNames);
+        return this;
+    }
+    public TuneHeader withError(final Exception error) {
+        setError(error);
+        return this;
+    }
+}
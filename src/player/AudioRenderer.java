@@ -0,0 +1,330 @@
+package player;
+
+import model.Song;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Synthesizer;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders songs to WAV audio through the JDK's software synthesizer, without a sound card.  The synthesizer is opened
+ * as a stream instead of on an audio line, and the song's events are sent to it ahead of the audio being read, so a
+ * song renders as fast as the synthesizer can produce samples rather than in real time.  Only a short window of audio
+ * and events is held at a time, however long the song is.
+ *
+ * The renderer keeps a number of synthesizers open, each rendering one song at a time, so that many threads can share a
+ * renderer and render different songs in parallel.  A render waits for a synthesizer when they are all in use.
+ *
+ * The software synthesizer only offers streams through com.sun.media.sound.AudioSynthesizer, which isn't part of the
+ * public API.  Java 9 and later only allow it to be used when run with
+ * --add-exports java.desktop/com.sun.media.sound=ALL-UNNAMED.
+ */
+public class AudioRenderer implements AutoCloseable {
+
+    // CD quality, 16 bit little endian stereo at 44.1kHz.
+    public static final AudioFormat FORMAT = new AudioFormat(44100, 16, 2, true, false);
+
+    private static final String AUDIO_SYNTHESIZER = "com.sun.media.sound.AudioSynthesizer";
+
+    // How long to keep rendering after the last note ends, so it can ring out.
+    private static final long TAIL_MICROSECONDS = 500000;
+
+    // How far ahead of the audio read so far events are sent to the synthesizer, so each is played at its exact time.
+    private static final int WINDOW_FRAMES = 4096;
+
+    // The tempo midi plays at until a song sets one, 120 quarter notes a minute.
+    private static final int DEFAULT_MICROSECONDS_PER_QUARTER_NOTE = 500000;
+
+    private static final int CHANNEL = 0;
+    private static final int VELOCITY = 100;
+    private static final int ALL_SOUND_OFF = 120;
+    private static final int RESET_ALL_CONTROLLERS = 121;
+
+    private static final int WAV_HEADER_BYTES = 44;
+
+    // Open synthesizers not rendering anything.
+    private final BlockingQueue<SynthesizerStream> idle;
+
+    private final int size;
+
+    /**
+     * Opens the synthesizers up front, which loads their soundbanks.
+     *
+     * @param synthesizers how many songs can be rendered at once.
+     */
+    public AudioRenderer(final int synthesizers) throws MidiUnavailableException {
+        if (synthesizers < 1) {
+            throw new IllegalArgumentException(String.format("Cannot render with %s synthesizers", synthesizers));
+        }
+        size = synthesizers;
+        idle = new ArrayBlockingQueue<>(synthesizers);
+        try {
+            for (int i = 0; i < synthesizers; i++) {
+                idle.add(new SynthesizerStream());
+            }
+        } catch (MidiUnavailableException | RuntimeException e) {
+            idle.forEach(SynthesizerStream::close);
+            throw e;
+        }
+    }
+
+    /**
+     * Renders the song to a WAV file.
+     *
+     * @param song the song to render.
+     * @param fileName the name of the file to write, usually ending in ".wav".
+     */
+    public void render(final Song song, final String fileName) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(Paths.get(fileName)))) {
+            render(song, out);
+        }
+    }
+
+    /**
+     * Renders the song as a WAV file to the stream.  The stream is not closed.
+     *
+     * @param song the song to render.
+     * @param out receives the WAV file.
+     */
+    public void render(final Song song, final OutputStream out) throws IOException {
+        render(new TimelineCompiler(false).compile(song), out);
+    }
+
+    /**
+     * Renders a compiled timeline as a WAV file to the stream.  The stream is not closed.
+     *
+     * @param timeline the timeline to render.
+     * @param out receives the WAV file.
+     */
+    public void render(final Timeline timeline, final OutputStream out) throws IOException {
+        SynthesizerStream synthesizer;
+        try {
+            synthesizer = idle.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a synthesizer", e);
+        }
+        try {
+            if (!synthesizer.isOpen()) {
+                // A render failed on it and another couldn't be opened in its place then.
+                synthesizer = new SynthesizerStream();
+            }
+            synthesizer.render(timeline, out);
+        } catch (IOException | RuntimeException e) {
+            synthesizer = replace(synthesizer, e);
+            throw e;
+        } catch (MidiUnavailableException e) {
+            throw new IllegalStateException("Cannot open a synthesizer to render with", e);
+        } finally {
+            idle.add(synthesizer);
+        }
+    }
+
+    // Notes sent ahead of the audio read so far are still queued in a synthesizer that failed part way through a song,
+    // and would sound in the next one, so it is closed and another opened in its place.  If that fails too, the closed
+    // one is kept and replaced when it is next used.
+    private static SynthesizerStream replace(final SynthesizerStream synthesizer, final Exception failure) {
+        synthesizer.close();
+        try {
+            return new SynthesizerStream();
+        } catch (MidiUnavailableException | RuntimeException e) {
+            failure.addSuppressed(e);
+            return synthesizer;
+        }
+    }
+
+    /**
+     * @param timeline a compiled timeline.
+     * @return the number of frames of audio the timeline renders to, including the time left for the last notes to
+     * ring out.
+     */
+    public static long getFrameLength(final Timeline timeline) {
+        return toFrames(getMicroseconds(timeline, timeline.getLength()) + TAIL_MICROSECONDS);
+    }
+
+    /**
+     * Closes the synthesizers, waiting for any renders still using them to finish.
+     */
+    @Override
+    public void close() {
+        for (int i = 0; i < size; i++) {
+            try {
+                final SynthesizerStream synthesizer = idle.poll(1, TimeUnit.MINUTES);
+                if (null == synthesizer) {
+                    return;
+                }
+                synthesizer.close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    // When the tick happens in the timeline, following its tempo changes.
+    private static long getMicroseconds(final Timeline timeline, final int tick) {
+        long micros = 0;
+        int lastTick = 0;
+        int tempo = DEFAULT_MICROSECONDS_PER_QUARTER_NOTE;
+        for (int i = 0; i < timeline.getTempoCount() && timeline.getTempoTick(i) < tick; i++) {
+            micros += (long) (timeline.getTempoTick(i) - lastTick) * tempo / timeline.getTicksPerQuarterNote();
+            lastTick = timeline.getTempoTick(i);
+            tempo = timeline.getTempoMicrosecondsPerQuarterNote(i);
+        }
+        return micros + (long) (tick - lastTick) * tempo / timeline.getTicksPerQuarterNote();
+    }
+
+    private static long toFrames(final long micros) {
+        return micros * (long) FORMAT.getFrameRate() / 1000000;
+    }
+
+    private static long toMicroseconds(final long frames) {
+        return frames * 1000000 / (long) FORMAT.getFrameRate();
+    }
+
+    // Writes the header of a WAV file holding the number of frames in the renderer's format.
+    private static void writeHeader(final OutputStream out, final long frames) throws IOException {
+        final int dataBytes = (int) (frames * FORMAT.getFrameSize());
+        final ByteBuffer header = ByteBuffer.allocate(WAV_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.put((byte) 'R').put((byte) 'I').put((byte) 'F').put((byte) 'F').putInt(WAV_HEADER_BYTES - 8 + dataBytes)
+                .put((byte) 'W').put((byte) 'A').put((byte) 'V').put((byte) 'E')
+                .put((byte) 'f').put((byte) 'm').put((byte) 't').put((byte) ' ').putInt(16)
+                .putShort((short) 1) // PCM
+                .putShort((short) FORMAT.getChannels())
+                .putInt((int) FORMAT.getSampleRate())
+                .putInt((int) FORMAT.getFrameRate() * FORMAT.getFrameSize())
+                .putShort((short) FORMAT.getFrameSize())
+                .putShort((short) FORMAT.getSampleSizeInBits())
+                .put((byte) 'd').put((byte) 'a').put((byte) 't').put((byte) 'a').putInt(dataBytes);
+        out.write(header.array());
+    }
+
+    // A synthesizer opened as a stream of audio, rendering one song at a time.  Its clock only moves as its audio is
+    // read, so each song starts where the last one's audio ended.
+    private static class SynthesizerStream {
+
+        private final Synthesizer synthesizer;
+        private final Receiver receiver;
+        private final AudioInputStream audio;
+        private final byte[] buffer = new byte[WINDOW_FRAMES * FORMAT.getFrameSize()];
+
+        // The frames of audio read from the synthesizer since it was opened.
+        private long position = 0;
+
+        private SynthesizerStream() throws MidiUnavailableException {
+            synthesizer = MidiSystem.getSynthesizer();
+            audio = openStream(synthesizer);
+            receiver = synthesizer.getReceiver();
+        }
+
+        private void render(final Timeline timeline, final OutputStream out) throws IOException {
+            final long frames = getFrameLength(timeline);
+            final long start = position;
+            writeHeader(out, frames);
+            try {
+                // Ticks are turned into times counted from the last tempo change.
+                final long[] tempo = {0, 0, DEFAULT_MICROSECONDS_PER_QUARTER_NOTE};
+                TimelineEvents.forEachEvent(timeline, event -> {
+                    final int tick = TimelineEvents.getTick(event);
+                    final int index = TimelineEvents.getIndex(event);
+                    final long micros = tempo[1] + (tick - tempo[0]) * tempo[2] / timeline.getTicksPerQuarterNote();
+                    if (TimelineEvents.TEMPO == TimelineEvents.getKind(event)) {
+                        tempo[0] = tick;
+                        tempo[1] = micros;
+                        tempo[2] = timeline.getTempoMicrosecondsPerQuarterNote(index);
+                        return;
+                    }
+                    final long time = toMicroseconds(start) + micros;
+                    // Audio up to shortly before the event is read first, so the synthesizer hasn't passed its time yet.
+                    readUntil(start + toFrames(micros) - WINDOW_FRAMES, out);
+                    final int command = TimelineEvents.isNoteOff(event) ? ShortMessage.NOTE_OFF : ShortMessage.NOTE_ON;
+                    send(command, timeline.getNotePitch(index), VELOCITY, time);
+                });
+                readUntil(start + frames, out);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } finally {
+                // Silence anything left over before the next song.
+                send(ShortMessage.CONTROL_CHANGE, ALL_SOUND_OFF, 0, -1);
+                send(ShortMessage.CONTROL_CHANGE, RESET_ALL_CONTROLLERS, 0, -1);
+            }
+        }
+
+        // Reads the synthesizer's audio up to the frame, writing it out.
+        private void readUntil(final long frame, final OutputStream out) {
+            try {
+                while (position < frame) {
+                    final int bytes = (int) Math.min(buffer.length, (frame - position) * FORMAT.getFrameSize());
+                    int read = 0;
+                    while (read < bytes) {
+                        final int count = audio.read(buffer, read, bytes - read);
+                        if (count < 0) {
+                            throw new IOException("The synthesizer's audio ended");
+                        }
+                        read += count;
+                    }
+                    out.write(buffer, 0, bytes);
+                    position += bytes / FORMAT.getFrameSize();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void send(final int command, final int data1, final int data2, final long time) {
+            try {
+                receiver.send(new ShortMessage(command, CHANNEL, data1, data2), time);
+            } catch (InvalidMidiDataException e) {
+                throw new IllegalArgumentException(String.format("Cannot send the value %s at %sus", data1, time), e);
+            }
+        }
+
+        private boolean isOpen() {
+            return synthesizer.isOpen();
+        }
+
+        private void close() {
+            receiver.close();
+            synthesizer.close();
+        }
+
+        // Opens the synthesizer to render into a stream instead of playing through a sound card.
+        private static AudioInputStream openStream(final Synthesizer synthesizer) throws MidiUnavailableException {
+            try {
+                final Class<?> audioSynthesizer = Class.forName(AUDIO_SYNTHESIZER);
+                if (!audioSynthesizer.isInstance(synthesizer)) {
+                    throw new IllegalStateException("The default synthesizer cannot render offline: " + synthesizer.getDeviceInfo());
+                }
+                final Method openStream = audioSynthesizer.getMethod("openStream", AudioFormat.class, Map.class);
+                return (AudioInputStream) openStream.invoke(synthesizer, FORMAT, null);
+            } catch (InvocationTargetException e) {
+                if (e.getCause() instanceof MidiUnavailableException) {
+                    throw (MidiUnavailableException) e.getCause();
+                }
+                throw new IllegalStateException("Unable to open the synthesizer", e.getCause());
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("The software synthesizer cannot be opened as a stream.  Java 9 and later need "
+                        + "--add-exports java.desktop/com.sun.media.sound=ALL-UNNAMED", e);
+            }
+        }
+    }
+}
@@ -4,9 +4,17 @@ import model.entities.Note;
 import model.enums.Accidental;
 import model.enums.NoteEnum;
 
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.stream.IntStream;
 
+import static javax.sound.midi.Sequence.PPQ;
 import static model.enums.NoteEnum.A;
 import static model.enums.NoteEnum.B;
 import static model.enums.NoteEnum.C;
@@ -44,8 +52,110 @@ public class MidiHelper {
         accidentalToPitch.put(Accidental.DOUBLE_SHARP, 2);
     }
 
+    // The maps above as arrays indexed by ordinal, so pitches are worked out without any map lookups.
+    private static final int[] notePitches;
+    private static final int[] accidentalPitches;
+    static {
+        notePitches = new int[NoteEnum.values().length];
+        noteToPitch.forEach((note, pitch) -> notePitches[note.ordinal()] = pitch);
+        accidentalPitches = new int[Accidental.values().length];
+        accidentalToPitch.forEach((accidental, pitch) -> accidentalPitches[accidental.ordinal()] = pitch);
+    }
+
     public static int getPitch(final Note note, final Accidental accidental) {
-        final int accidentalPitch = null != accidental ? accidentalToPitch.get(accidental) : 0;
-        return noteToPitch.get(note.getNoteEnum()) + accidentalPitch + OCTAVE * note.getOctave() + BASE_PITCH;
+        return getPitch(note.getNoteEnum(), accidental, note.getOctave());
+    }
+
+    /**
+     * @param note the note.
+     * @param accidental the accidental to play the note with, or null for none.
+     * @param octave the octave of the note, 0 being the octave starting at middle C.
+     * @return the midi pitch of the note.
+     */
+    public static int getPitch(final NoteEnum note, final Accidental accidental, final int octave) {
+        final int accidentalPitch = null != accidental ? accidentalPitches[accidental.ordinal()] : 0;
+        return notePitches[note.ordinal()] + accidentalPitch + OCTAVE * octave + BASE_PITCH;
+    }
+
+    /**
+     * Converts a compiled timeline into a midi sequence with a single track.  The voices are merged into one stream of
+     * events ordered by tick, so every event is appended to the end of the track.
+     *
+     * @param timeline the timeline to convert.
+     * @return a sequence with note on and note off events for every note and an event for every tempo change.
+     */
+    public static Sequence toSequence(final Timeline timeline) throws InvalidMidiDataException {
+        // The timeline's resolution, the fewest ticks per quarter note that give every note of the song a whole number of
+        // ticks, or 960 with durations rounded down to the tick for songs that would need more than a midi file holds.
+        final Sequence sequence = new Sequence(PPQ, timeline.getTicksPerQuarterNote());
+        final Track track = sequence.createTrack();
+
+        // sequencer.setTempoInBPM doesn't seem to work for multiple tempo changes.  Have to add an event at the appropriate time tick.
+        TimelineEvents.forEachEvent(timeline, event -> addEvent(track, timeline, event));
+        return sequence;
+    }
+
+    /**
+     * Converts a compiled timeline into a type 1 midi sequence, with a conductor track holding the tempo changes and a
+     * track for each voice.  The voice tracks are independent of each other, so they are filled in parallel.
+     *
+     * @param timeline the timeline to convert.
+     * @return a sequence with a track for the tempo changes followed by one for each voice, in voice number order.
+     */
+    public static Sequence toMultiTrackSequence(final Timeline timeline) throws InvalidMidiDataException {
+        final Sequence sequence = new Sequence(PPQ, timeline.getTicksPerQuarterNote());
+        final Track conductor = sequence.createTrack();
+        for (long event : TimelineEvents.getTempoEvents(timeline)) {
+            addEvent(conductor, timeline, event);
+        }
+
+        // Create the tracks up front so they keep voice order, then fill them.
+        final Track[] tracks = new Track[timeline.getVoiceNames().size()];
+        for (int voice = 0; voice < tracks.length; voice++) {
+            tracks[voice] = sequence.createTrack();
+        }
+        IntStream.range(0, tracks.length).parallel().forEach(voice -> {
+            for (long event : TimelineEvents.getVoiceEvents(timeline, voice)) {
+                addEvent(tracks[voice], timeline, event);
+            }
+        });
+        return sequence;
+    }
+
+    // Adds a tempo change, note on, or note off from the timeline's events to the track.
+    private static void addEvent(final Track track, final Timeline timeline, final long event) {
+        final int tick = TimelineEvents.getTick(event);
+        final int index = TimelineEvents.getIndex(event);
+        final boolean tempo = TimelineEvents.TEMPO == TimelineEvents.getKind(event);
+        try {
+            if (tempo) {
+                addTempoEvent(track, timeline.getTempoMicrosecondsPerQuarterNote(index), tick);
+            } else {
+                addMidiEvent(track, TimelineEvents.isNoteOff(event) ? ShortMessage.NOTE_OFF : ShortMessage.NOTE_ON, timeline.getNotePitch(index), tick);
+            }
+        } catch (InvalidMidiDataException e) {
+            final String msg = tempo ? String.format("Cannot add tempo change at tick %s", tick)
+                    : String.format("Cannot add note with the pitch %s at tick %s for duration of %s",
+                            timeline.getNotePitch(index), timeline.getNoteStart(index), timeline.getNoteDuration(index));
+            throw new RuntimeException(msg, e);
+        }
+    }
+
+    private static void addMidiEvent(final Track track, final int eventType, final int pitch, final int tick) throws InvalidMidiDataException {
+        final ShortMessage msg = new ShortMessage();
+        msg.setMessage(eventType, 0, pitch, 100);
+        final MidiEvent event = new MidiEvent(msg, tick);
+        track.add(event);
+    }
+
+    private static void addTempoEvent(final Track track, final int mpq, final int tick) throws InvalidMidiDataException {
+        // from http://www.programcreek.com/java-api-examples/index.php?api=javax.sound.midi.MetaMessage
+        final MetaMessage tempoMsg = new MetaMessage();
+        tempoMsg.setMessage(0x51,new byte[] {
+                (byte)(mpq>>16 & 0xff),
+                (byte)(mpq>>8 & 0xff),
+                (byte)(mpq & 0xff)
+        },3);
+        track.add(new MidiEvent(tempoMsg, tick));
     }
 }
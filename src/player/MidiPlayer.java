@@ -1,198 +1,161 @@
 package player;
 
-import model.Measure;
-import model.MeasureKey;
 import model.Song;
-import model.Voice;
-import model.entities.Chord;
-import model.entities.MeasureEntity;
-import model.entities.Note;
-import model.entities.Rest;
-import model.entities.Tuplet;
-import model.enums.Accidental;
-import model.enums.BarLineEnum;
-import model.enums.NoteEnum;
 
 import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MetaEventListener;
 import javax.sound.midi.MetaMessage;
-import javax.sound.midi.MidiEvent;
 import javax.sound.midi.MidiSystem;
 import javax.sound.midi.MidiUnavailableException;
 import javax.sound.midi.Sequence;
 import javax.sound.midi.Sequencer;
-import javax.sound.midi.ShortMessage;
-import javax.sound.midi.Track;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Plays songs through a midi sequencer.  The sequencer reports the end of each song with an end of track meta event, so
+ * nothing runs between events while a song plays, whether the caller waits for it or not.
+ *
+ * Given a SequencerPool, songs are played on sequencers that are already open and returned to the pool afterwards, so
+ * a song starts without waiting for a sequencer and synthesizer to open.
+ *
+ * Everything about a song being played is kept in its own Playback, never in the player, so one player can be shared
+ * by any number of threads playing songs at once.
+ */
+public class MidiPlayer implements Player {
 
-import static javax.sound.midi.Sequence.PPQ;
-import static player.MidiHelper.getPitch;
+    // Meta message type the sequencer sends once it reaches the end of the sequence.
+    private static final int END_OF_TRACK = 0x2F;
 
-public class MidiPlayer implements Player {
+    // Where sequencers come from, or null to open a new one for each song.
+    private final SequencerPool pool;
+
+    // Whether progress is printed to the console.
+    private final boolean verbose;
 
-    private Sequencer sequencer;
-    private Track track;
+    public MidiPlayer() {
+        this(null);
+    }
 
-    // Any note durations need to be multiplied by this to get the actual tick duration.
-    private static int TICKS_PER_QUARTER_NOTE = 16;
+    /**
+     * @param pool the pool to play songs from, or null to open a new sequencer for each song.
+     */
+    public MidiPlayer(final SequencerPool pool) {
+        this(pool, true);
+    }
+
+    /**
+     * @param pool the pool to play songs from, or null to open a new sequencer for each song.
+     * @param verbose whether to print progress to the console.
+     */
+    public MidiPlayer(final SequencerPool pool, final boolean verbose) {
+        this.pool = pool;
+        this.verbose = verbose;
+    }
 
 	@Override
 	public void play(final Song song) throws MidiUnavailableException, InvalidMidiDataException {
-        System.out.println("Loading " + song.getTitle());
-
-        // Always set the sequence to 8 ticks per quarter note, allowing for 32nd note granularity.
-        final Sequence sequence = new Sequence(PPQ, TICKS_PER_QUARTER_NOTE);
-        track = sequence.createTrack();
-
-        sequencer = MidiSystem.getSequencer();
-        sequencer.setSequence(sequence);
-        sequencer.open();
-
-        // Iterate through each voice, adding notes to the track.
-        boolean setTempo = true; // only need to set the tempo from the first voice.  All other voices should have the same tempo.
-        for (Map.Entry<String, Voice> entry : song.getVoices().entrySet()) {
-            System.out.println("Adding voice " + entry.getKey() + " to track");
-            if (entry.getValue().getMeasures().isEmpty()) {
-                continue;
-            }
-
-            int tick = 0;
-            int endingIndex = 1; // as in, the first time through.  Will match with the alternate ending count when reached.
-            Measure currentMeasure = entry.getValue().getMeasures().get(0);
-            MeasureKey key = currentMeasure.getKey();
-            while(true) {
-                if (setTempo && null != currentMeasure.getTempo()) {
-                    System.out.println("Setting tempo to " + currentMeasure.getTempo());
-                    // sequencer.setTempoInBPM doesn't seem to work for multiple tempo changes.  Have to add an event at the appropriate time tick.
-                    // Also, if the default length is not a quarter note, need to scale the tempo to match.
-                    addTempoEvent(currentMeasure.getTempo(), currentMeasure.getLastNoteDuration(), tick);
-                }
-                final Map<NoteEnum, Accidental> overrideTracker = new HashMap<>();
+        playAsync(song).join();
+	}
 
-                for (MeasureEntity entity : currentMeasure.getEntities()) {
-                    tick += handleEntity(entity, overrideTracker, key, currentMeasure.getLastNoteDuration(), tick);
-                }
-                if (null == currentMeasure.getNextMeasure()) {
-                    break;
-                }
+    @Override
+    public CompletableFuture<Void> playAsync(final Song song) throws MidiUnavailableException, InvalidMidiDataException {
+        log("Loading " + song.getTitle());
+        return playAsync(new TimelineCompiler().compile(song));
+    }
 
-                // If we've reached a repeat, go back to the section start and increment the counter.
-                if (currentMeasure.getEndLine() == BarLineEnum.REPEAT_END) {
-                    if (endingIndex == 1) {
-                        currentMeasure = currentMeasure.getSectionStart();
-                        System.out.println("Repeating back to measure " + currentMeasure.getIndex());
-                        endingIndex++;
-                    } else {
-                        currentMeasure = currentMeasure.getNextMeasure();
-                        endingIndex--;
-                    }
-                }
-                // If we've reached an alternate ending, go to the appropriately numbered one.
-                else if (null != currentMeasure.getNextMeasure().getAlternateEnding()) {
-                    currentMeasure = currentMeasure.getNextAlternateEnding(endingIndex);
-                    System.out.println("Going to alternate ending " + endingIndex + " at measure " + currentMeasure.getIndex());
-                } else {
-                    currentMeasure = currentMeasure.getNextMeasure();
-                }
+    /**
+     * Plays a compiled timeline.  Compile a song once with the TimelineCompiler to play it any number of times.  Songs
+     * with several voices are played from a track per voice, built in parallel.
+     *
+     * @param timeline the timeline to play.
+     */
+    public void play(final Timeline timeline) throws MidiUnavailableException, InvalidMidiDataException {
+        playAsync(timeline).join();
+    }
 
-                if (currentMeasure.getEndLine() == BarLineEnum.SECTION_END) {
-                    endingIndex = 1;
-                }
-            }
-            setTempo = false;
+    /**
+     * Starts playing a compiled timeline and returns without waiting for it to finish.  Each timeline is played on its
+     * own sequencer, which goes back to the pool, or is closed, once it reaches the end.
+     *
+     * @param timeline the timeline to play.
+     * @return completes once the timeline has finished playing.
+     */
+    public CompletableFuture<Void> playAsync(final Timeline timeline) throws MidiUnavailableException, InvalidMidiDataException {
+        final Sequence sequence = timeline.getVoiceNames().size() > 1
+                ? MidiHelper.toMultiTrackSequence(timeline) : MidiHelper.toSequence(timeline);
+        final Playback playback = new Playback(null != pool ? pool.acquire() : getSequencer());
+        try {
+            playback.load(sequence);
+        } catch (InvalidMidiDataException | MidiUnavailableException | RuntimeException e) {
+            playback.finish();
+            throw e;
         }
 
-        System.out.println("Playing " + song.getTitle());
-        sequencer.start();
-        while (sequencer.isRunning()) {
-            Thread.yield();
-        }
-        sequencer.close();
-        System.out.println("Done");
-	}
+        log("Playing " + timeline.getTitle());
+        playback.start();
+        return playback.done;
+    }
 
-    private Integer handleEntity(final MeasureEntity entity, final Map<NoteEnum, Accidental> overrideTracker, final MeasureKey key, final Double defaultNoteDuration, final Integer tick) {
-        // Rests simply move the song along.
-        if (entity instanceof Rest) {
-            final Rest rest = (Rest) entity;
-            return getDurationTick(rest.getDurationMultiplier(), defaultNoteDuration);
-        }
-        // Notes add midi events for their duration.
-        if (entity instanceof Note) {
-            final Note note = (Note) entity;
-            final Integer durationTick = getDurationTick(note.getDurationMultiplier(), defaultNoteDuration);
-            addNote(getPitch(note, getAccidental(note, overrideTracker, key)), tick, durationTick);
-            return durationTick;
-        }
-        // Chords add note events for each note played at the same tick.
-        if (entity instanceof Chord) {
-            final Chord chord = (Chord) entity;
-            final int duration = getDurationTick(chord.getDurationMultiplier(), defaultNoteDuration);
-            for (Note note : chord.getNotes()) {
-                // Ensure the notes are all the same duration.
-                handleEntity(note.withDurationMultiplier(chord.getDurationMultiplier()), overrideTracker, key, defaultNoteDuration, tick);
-            }
-            return duration;
-        }
-        // Tuplets play out their notes evenly over the course of the duration.
-        if (entity instanceof Tuplet) {
-            final Tuplet tuplet = (Tuplet) entity;
-            final int duration = getDurationTick(tuplet.getDurationMultiplier(), defaultNoteDuration);
-            final int increment = duration / tuplet.getEntities().size();
-            int tupletTick = tick;
-            for (MeasureEntity tupletEntity : tuplet.getEntities()) {
-                // Ensure each entity doesn't overlap in duration.
-                handleEntity(tupletEntity.withDurationMultiplier(tuplet.getDurationMultiplier()/tuplet.getEntities().size()), overrideTracker, key, defaultNoteDuration, tupletTick);
-                tupletTick += increment;
-            }
-            return duration;
-        }
-        // All other entity types are ignored.
-        return 0;
+    /**
+     * @return a new sequencer to play a song on when there is no pool, connected to the default synthesizer.
+     */
+    protected Sequencer getSequencer() throws MidiUnavailableException {
+        return MidiSystem.getSequencer();
     }
 
-    private Accidental getAccidental(final Note note, final Map<NoteEnum, Accidental> overrideTracker, final MeasureKey key) {
-        if (null != note.getAccidentalOverride()) {
-            overrideTracker.put(note.getNoteEnum(), note.getAccidentalOverride());
-            return note.getAccidentalOverride();
+    private void log(final String message) {
+        if (verbose) {
+            System.out.println(message);
         }
-        return overrideTracker.containsKey(note.getNoteEnum()) ? overrideTracker.get(note.getNoteEnum()) : key.getAccidental(note);
     }
 
-    private int getDurationTick(final Double noteMultiplier, final Double defaultNoteDuration) {
-        final Double durationTick = defaultNoteDuration * noteMultiplier * TICKS_PER_QUARTER_NOTE * 8; // ex. a quarter note (0.25) * 8 * 8 = 16 ticks.
-        return durationTick.intValue();
-    }
+    // A single song being played, on a sequencer no other song is using until this one is done.
+    private class Playback implements MetaEventListener {
 
-    private void addNote(int pitch, int startTick, int numTicks) {
-        try {
-            addMidiEvent(ShortMessage.NOTE_ON, pitch, startTick);
-            addMidiEvent(ShortMessage.NOTE_OFF, pitch, startTick + numTicks);
-        } catch (InvalidMidiDataException e) {
-            String msg = String.format("Cannot add note with the pitch %s at tick %s for duration of %s", pitch, startTick, numTicks);
-            throw new RuntimeException(msg, e);
+        private final Sequencer sequencer;
+
+        // Completes once the song has finished playing.
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        private Playback(final Sequencer sequencer) {
+            this.sequencer = sequencer;
         }
-    }
 
-    private void addMidiEvent(final int eventType, final int pitch, final int tick) throws InvalidMidiDataException {
-        final ShortMessage msg = new ShortMessage();
-        msg.setMessage(eventType, 0, pitch, 100);
-        final MidiEvent event = new MidiEvent(msg, tick);
-        track.add(event);
-    }
+        private void load(final Sequence sequence) throws InvalidMidiDataException, MidiUnavailableException {
+            sequencer.setSequence(sequence);
+            sequencer.setTickPosition(0);
+            sequencer.open();
+        }
 
-    private void addTempoEvent(final int tempo, final double defaultDuration, final int tick) throws InvalidMidiDataException {
-        // scale by the note duration divided by the default duration (since tempo is given in eighth note beats per minute).
-        final double scaledTempo = (double) tempo * (defaultDuration / 0.125);
-
-        // from http://www.programcreek.com/java-api-examples/index.php?api=javax.sound.midi.MetaMessage
-        final int mpq = 60000000 / (int) scaledTempo;
-        final MetaMessage tempoMsg = new MetaMessage();
-        tempoMsg.setMessage(0x51,new byte[] {
-                (byte)(mpq>>16 & 0xff),
-                (byte)(mpq>>8 & 0xff),
-                (byte)(mpq & 0xff)
-        },3);
-        track.add(new MidiEvent(tempoMsg, tick));
+        private void start() {
+            sequencer.addMetaEventListener(this);
+            sequencer.start();
+        }
+
+        @Override
+        public void meta(final MetaMessage message) {
+            if (END_OF_TRACK == message.getType()) {
+                // Pooled sequencers are used again, so they mustn't keep telling this song it has ended.
+                sequencer.removeMetaEventListener(this);
+                // Whoever is waiting on the song hears about it even if the sequencer can't be given back.
+                try {
+                    finish();
+                } catch (RuntimeException e) {
+                    done.completeExceptionally(e);
+                    return;
+                }
+                log("Done");
+                done.complete(null);
+            }
+        }
+
+        // Gives the sequencer back to the pool, or closes it if it was opened for just the one song.
+        private void finish() {
+            if (null != pool) {
+                pool.release(sequencer);
+            } else {
+                sequencer.close();
+            }
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,201 @@
+package player;
+
+import model.Song;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.stream.IntStream;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Renders songs straight to Standard MIDI Files instead of playing them.  No midi device is opened and nothing waits for
+ * the song to play, so a song renders in milliseconds and whole collections can be converted on machines without any
+ * audio hardware.
+ *
+ * Renderers hold nothing but their file type, so one renderer can serve any number of threads at once.  Each render
+ * keeps its state in its own context, and borrows SmfEncoders from a shared pool of idle ones for writing the file and
+ * its tracks, so buffers are reused between renders without one being kept for every thread that has ever rendered.
+ *
+ * Type 1 files get a conductor track holding the tempo changes followed by a track for each voice.  The voice tracks are
+ * independent once the tempo changes are known, so they are encoded in parallel.
+ */
+public class MidiRenderer {
+
+    // Standard MIDI File types.  Type 0 holds everything in one track, type 1 allows several tracks played together.
+    public static final int SINGLE_TRACK = 0;
+    public static final int MULTI_TRACK = 1;
+
+    // Midi channel all notes are played on.
+    private static final int CHANNEL = 0;
+
+    // Velocity all notes are played at.
+    private static final int VELOCITY = 100;
+
+    // The most encoders kept idle between renders.  Any more are left for the garbage collector.
+    private static final int MAX_IDLE_ENCODERS = 64;
+
+    // Encoders not being used by any render, shared by every renderer.
+    private static final BlockingQueue<SmfEncoder> IDLE_ENCODERS = new ArrayBlockingQueue<>(MAX_IDLE_ENCODERS);
+
+    // The type of file written.
+    private final int fileType;
+
+    public MidiRenderer() {
+        this(SINGLE_TRACK);
+    }
+
+    /**
+     * @param fileType the Standard MIDI File type to write, SINGLE_TRACK or MULTI_TRACK.
+     */
+    public MidiRenderer(final int fileType) {
+        if (SINGLE_TRACK != fileType && MULTI_TRACK != fileType) {
+            throw new IllegalArgumentException("Unsupported midi file type " + fileType);
+        }
+        this.fileType = fileType;
+    }
+
+    /**
+     * Renders the song to a midi file.
+     *
+     * @param song the song to render.
+     * @param fileName the name of the file to write, usually ending in ".mid".
+     */
+    public void render(final Song song, final String fileName) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), CREATE, TRUNCATE_EXISTING, WRITE)) {
+            render(song, channel);
+        }
+    }
+
+    /**
+     * Renders the song to midi file bytes.
+     *
+     * @param song the song to render.
+     * @return the contents of a midi file.
+     */
+    public byte[] render(final Song song) {
+        try (Render render = new Render(new TimelineCompiler(false).compile(song))) {
+            return render.encode().toByteArray();
+        }
+    }
+
+    /**
+     * Renders the song as a midi file to the stream.  The stream is not closed.
+     *
+     * @param song the song to render.
+     * @param out receives the midi file.
+     */
+    public void render(final Song song, final OutputStream out) throws IOException {
+        render(new TimelineCompiler(false).compile(song), out);
+    }
+
+    /**
+     * Renders the song as a midi file to the channel.  The channel is not closed.
+     *
+     * @param song the song to render.
+     * @param channel receives the midi file.
+     */
+    public void render(final Song song, final WritableByteChannel channel) throws IOException {
+        try (Render render = new Render(new TimelineCompiler(false).compile(song))) {
+            render.encode().writeTo(channel);
+        }
+    }
+
+    /**
+     * Renders a compiled timeline as a midi file to the stream.  The stream is not closed.
+     *
+     * @param timeline the timeline to render.
+     * @param out receives the midi file.
+     */
+    public void render(final Timeline timeline, final OutputStream out) throws IOException {
+        try (Render render = new Render(timeline)) {
+            render.encode().writeTo(out);
+        }
+    }
+
+    private static SmfEncoder takeEncoder() {
+        final SmfEncoder encoder = IDLE_ENCODERS.poll();
+        return null != encoder ? encoder : new SmfEncoder();
+    }
+
+    private static void giveBack(final SmfEncoder encoder) {
+        IDLE_ENCODERS.offer(encoder);
+    }
+
+    // The state of a single render, the timeline and the encoder its file is written with.  Nothing is shared with any
+    // other render but the pool of idle encoders.  Closing the render gives its encoder back, so the file has to be
+    // written out before then.
+    private class Render implements AutoCloseable {
+
+        private final Timeline timeline;
+        private final SmfEncoder encoder = takeEncoder();
+
+        private Render(final Timeline timeline) {
+            this.timeline = timeline;
+        }
+
+        // Writes the timeline into the render's encoder as a file of the renderer's type.
+        private SmfEncoder encode() {
+            if (SINGLE_TRACK == fileType) {
+                // The voices are merged into one ordered stream of events.
+                encoder.begin(SINGLE_TRACK, timeline.getTicksPerQuarterNote());
+                encoder.beginTrack();
+                TimelineEvents.forEachEvent(timeline, event -> encodeEvent(encoder, timeline, event));
+                encoder.endTrack();
+                return encoder;
+            }
+
+            final List<byte[]> voiceTracks = IntStream.range(0, timeline.getVoiceNames().size()).parallel()
+                    .mapToObj(voice -> {
+                        final SmfEncoder trackEncoder = takeEncoder().beginTracks();
+                        try {
+                            encodeTrack(trackEncoder, timeline, TimelineEvents.getVoiceEvents(timeline, voice));
+                            return trackEncoder.toByteArray();
+                        } finally {
+                            giveBack(trackEncoder);
+                        }
+                    })
+                    .collect(toList());
+
+            encoder.begin(MULTI_TRACK, timeline.getTicksPerQuarterNote());
+            encodeTrack(encoder, timeline, TimelineEvents.getTempoEvents(timeline));
+            voiceTracks.forEach(encoder::addTrack);
+            return encoder;
+        }
+
+        @Override
+        public void close() {
+            giveBack(encoder);
+        }
+    }
+
+    // Writes the ordered events to the encoder as a track.
+    private static void encodeTrack(final SmfEncoder encoder, final Timeline timeline, final long[] events) {
+        encoder.beginTrack();
+        for (long event : events) {
+            encodeEvent(encoder, timeline, event);
+        }
+        encoder.endTrack();
+    }
+
+    private static void encodeEvent(final SmfEncoder encoder, final Timeline timeline, final long event) {
+        final int tick = TimelineEvents.getTick(event);
+        final int index = TimelineEvents.getIndex(event);
+        if (TimelineEvents.TEMPO == TimelineEvents.getKind(event)) {
+            encoder.tempo(tick, timeline.getTempoMicrosecondsPerQuarterNote(index));
+        } else if (TimelineEvents.isNoteOff(event)) {
+            encoder.noteOff(tick, CHANNEL, timeline.getNotePitch(index));
+        } else {
+            encoder.noteOn(tick, CHANNEL, timeline.getNotePitch(index), VELOCITY);
+        }
+    }
+}
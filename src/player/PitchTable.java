@@ -0,0 +1,54 @@
+package player;
+
+import model.MeasureKey;
+import model.enums.Accidental;
+import model.enums.Key;
+import model.enums.NoteEnum;
+
+/**
+ * The midi pitch of every note in a key, worked out once per key.  Looking up a pitch by note, accidental, and octave
+ * then costs a couple of array loads instead of map lookups and scans of the key signature.  Tables are immutable and
+ * shared between threads.
+ */
+public class PitchTable {
+
+    private static final int NOTES = NoteEnum.values().length;
+
+    // A table for every key, indexed by the key's ordinal.
+    private static final PitchTable[] tables;
+    static {
+        tables = new PitchTable[Key.values().length];
+        for (Key key : Key.values()) {
+            tables[key.ordinal()] = new PitchTable(MeasureKey.of(key));
+        }
+    }
+
+    // The pitch of each note in the middle octave, indexed by accidental and then note ordinal.  The first row holds the
+    // notes as the key signature plays them, followed by a row for each accidental in ordinal order.
+    private final int[] pitches;
+
+    private PitchTable(final MeasureKey key) {
+        pitches = new int[(Accidental.values().length + 1) * NOTES];
+        for (NoteEnum note : NoteEnum.values()) {
+            pitches[note.ordinal()] = MidiHelper.getPitch(note, key.getAccidental(note), 0);
+            for (Accidental accidental : Accidental.values()) {
+                pitches[(accidental.ordinal() + 1) * NOTES + note.ordinal()] = MidiHelper.getPitch(note, accidental, 0);
+            }
+        }
+    }
+
+    public static PitchTable forKey(final Key key) {
+        return tables[key.ordinal()];
+    }
+
+    /**
+     * @param note the note.
+     * @param accidental the accidental in effect for the note, or null to use the key signature.
+     * @param octave the octave of the note, 0 being the octave starting at middle C.
+     * @return the midi pitch of the note.
+     */
+    public int getPitch(final NoteEnum note, final Accidental accidental, final int octave) {
+        final int row = null == accidental ? 0 : accidental.ordinal() + 1;
+        return pitches[row * NOTES + note.ordinal()] + MidiHelper.OCTAVE * octave;
+    }
+}
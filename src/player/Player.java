@@ -4,6 +4,7 @@ import model.Song;
 
 import javax.sound.midi.InvalidMidiDataException;
 import javax.sound.midi.MidiUnavailableException;
+import java.util.concurrent.CompletableFuture;
 
 public interface Player {
     /**
@@ -12,4 +13,12 @@ public interface Player {
      * @param song the song to load.
      */
 	void play(Song song) throws MidiUnavailableException, InvalidMidiDataException;
+
+    /**
+     * Starts playing the song and returns without waiting for it to finish, so several songs can play at once.
+     *
+     * @param song the song to play.
+     * @return completes once the song has finished playing.
+     */
+    CompletableFuture<Void> playAsync(Song song) throws MidiUnavailableException, InvalidMidiDataException;
 }
@@ -0,0 +1,148 @@
+package player;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiChannel;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.Sequencer;
+import javax.sound.midi.Synthesizer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+/**
+ * Keeps sequencers open between songs.  Opening a sequencer and the synthesizer it plays through loads the soundbank
+ * and starts the synthesizer, which takes far longer than a short song takes to start playing.  The pool opens its
+ * devices up front, lends them out one song at a time, and resets them when they come back.  When every device is in
+ * use another one is opened, and it joins the pool once it is released.
+ *
+ * Pools are thread safe.
+ */
+public class SequencerPool implements AutoCloseable {
+
+    // Open sequencers waiting to be acquired.  The most recently used comes out first.
+    private final ConcurrentLinkedDeque<Sequencer> idle = new ConcurrentLinkedDeque<>();
+
+    // The synthesizer each sequencer plays through, if they are connected to one.
+    private final Map<Sequencer, Synthesizer> synthesizers = new ConcurrentHashMap<>();
+
+    // Whether each sequencer gets its own synthesizer.
+    private final boolean synthesize;
+
+    private volatile boolean closed;
+
+    /**
+     * @param size the number of sequencers to open up front, each connected to its own synthesizer.
+     */
+    public SequencerPool(final int size) throws MidiUnavailableException {
+        this(size, true);
+    }
+
+    /**
+     * @param size the number of sequencers to open up front.
+     * @param synthesize whether each sequencer plays through its own synthesizer.  Without one the sequencers still
+     *                   play in real time and report the end of each song, but make no sound.
+     */
+    public SequencerPool(final int size, final boolean synthesize) throws MidiUnavailableException {
+        if (size < 0) {
+            throw new IllegalArgumentException(String.format("Cannot open %s sequencers", size));
+        }
+        this.synthesize = synthesize;
+        try {
+            for (int i = 0; i < size; i++) {
+                idle.push(open());
+            }
+        } catch (MidiUnavailableException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return an open sequencer that isn't being used by anything else.  Give it back with release once the song is
+     * done.
+     */
+    public Sequencer acquire() throws MidiUnavailableException {
+        if (closed) {
+            throw new IllegalStateException("The pool is closed.");
+        }
+        final Sequencer sequencer = idle.poll();
+        return null != sequencer ? sequencer : open();
+    }
+
+    /**
+     * Stops the sequencer, clears its song and silences its synthesizer, then returns it to the pool.
+     *
+     * @param sequencer a sequencer from acquire.
+     */
+    public void release(final Sequencer sequencer) {
+        if (!sequencer.isOpen()) {
+            throw new IllegalArgumentException("Cannot release a closed sequencer.");
+        }
+        sequencer.stop();
+        try {
+            sequencer.setSequence((Sequence) null);
+        } catch (InvalidMidiDataException e) {
+            throw new RuntimeException(e);
+        }
+        final Synthesizer synthesizer = synthesizers.get(sequencer);
+        if (null != synthesizer) {
+            for (MidiChannel channel : synthesizer.getChannels()) {
+                if (null != channel) {
+                    channel.allNotesOff();
+                }
+            }
+        }
+        idle.push(sequencer);
+        // The pool may have been closed while the sequencer was being reset.
+        if (closed && idle.remove(sequencer)) {
+            close(sequencer);
+        }
+    }
+
+    /**
+     * @return the number of open sequencers waiting to be acquired.
+     */
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * Closes the idle sequencers.  Sequencers that are still playing are closed as they are released.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        Sequencer sequencer;
+        while (null != (sequencer = idle.poll())) {
+            close(sequencer);
+        }
+    }
+
+    private Sequencer open() throws MidiUnavailableException {
+        final Sequencer sequencer = MidiSystem.getSequencer(false);
+        sequencer.open();
+        if (synthesize) {
+            final Synthesizer synthesizer = MidiSystem.getSynthesizer();
+            try {
+                synthesizer.open();
+                sequencer.getTransmitter().setReceiver(synthesizer.getReceiver());
+            } catch (MidiUnavailableException e) {
+                synthesizer.close();
+                sequencer.close();
+                throw e;
+            }
+            synthesizers.put(sequencer, synthesizer);
+        }
+        return sequencer;
+    }
+
+    private void close(final Sequencer sequencer) {
+        sequencer.close();
+        final Synthesizer synthesizer = synthesizers.remove(sequencer);
+        if (null != synthesizer) {
+            synthesizer.close();
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package player;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Writes Standard MIDI Files straight into a byte buffer, without building a Sequence.  Events must be given in tick
+ * order within each track.  Delta times are written as variable length quantities, status bytes are left out whenever
+ * they repeat (running status), and note offs are written as note ons with a velocity of 0 so they share the note on
+ * status.  The buffer is kept between files, so reusing an encoder for many files doesn't allocate.
+ *
+ * The tracks of one file can be encoded on separate threads, each by its own encoder started with beginTracks, and then
+ * added to the file's encoder with addTrack.
+ *
+ * Encoders are not thread safe.
+ */
+public class SmfEncoder {
+
+    private static final int NOTE_ON = 0x90;
+    private static final int META = 0xFF;
+    private static final int META_TEMPO = 0x51;
+    private static final int META_END_OF_TRACK = 0x2F;
+
+    // The largest delta time a variable length quantity can hold, four bytes of 7 bits.
+    private static final int MAX_DELTA = 0x0FFFFFFF;
+
+    // Where the number of tracks is written in the header.
+    private static final int TRACK_COUNT_OFFSET = 10;
+
+    private ByteBuffer buffer;
+
+    private int trackCount;
+
+    // Whether the buffer starts with a file header, or only holds tracks.
+    private boolean header;
+
+    // Where the current track's length is written, or -1 if no track is open.
+    private int trackLengthOffset = -1;
+
+    // The tick of the last event written to the current track.
+    private int lastTick;
+
+    // The status byte of the last event written, or 0 if the next event must write its status.
+    private int runningStatus;
+
+    public SmfEncoder() {
+        this(64 * 1024);
+    }
+
+    /**
+     * @param initialCapacity the starting size of the buffer in bytes.  It grows as needed.
+     */
+    public SmfEncoder(final int initialCapacity) {
+        buffer = ByteBuffer.allocate(initialCapacity);
+    }
+
+    /**
+     * Starts a new file, discarding anything written before.
+     *
+     * @param format the Standard MIDI File type, 0 for a single track or 1 for several tracks played together.
+     * @param ticksPerQuarterNote the resolution of the event ticks.
+     */
+    public SmfEncoder begin(final int format, final int ticksPerQuarterNote) {
+        beginTracks();
+        header = true;
+        ensureCapacity(14);
+        buffer.put((byte) 'M').put((byte) 'T').put((byte) 'h').put((byte) 'd').putInt(6)
+                .putShort((short) format).putShort((short) 0).putShort((short) ticksPerQuarterNote);
+        return this;
+    }
+
+    /**
+     * Starts encoding tracks without a file header, discarding anything written before.  The finished tracks are meant
+     * to be added to another encoder's file with addTrack.
+     */
+    public SmfEncoder beginTracks() {
+        buffer.clear();
+        header = false;
+        trackCount = 0;
+        trackLengthOffset = -1;
+        return this;
+    }
+
+    // Starts a track.  Events written until endTrack belong to it.
+    public void beginTrack() {
+        if (-1 != trackLengthOffset) {
+            throw new IllegalStateException("The previous track wasn't ended.");
+        }
+        ensureCapacity(8);
+        buffer.put((byte) 'M').put((byte) 'T').put((byte) 'r').put((byte) 'k');
+        trackLengthOffset = buffer.position();
+        buffer.putInt(0);
+        lastTick = 0;
+        runningStatus = 0;
+    }
+
+    public void noteOn(final int tick, final int channel, final int pitch, final int velocity) {
+        checkData(pitch, tick);
+        checkData(velocity, tick);
+        writeDelta(tick);
+        writeStatus(NOTE_ON | channel);
+        buffer.put((byte) pitch).put((byte) velocity);
+    }
+
+    // Written as a note on with a velocity of 0 so the note on status can keep running.
+    public void noteOff(final int tick, final int channel, final int pitch) {
+        noteOn(tick, channel, pitch, 0);
+    }
+
+    public void tempo(final int tick, final int microsecondsPerQuarterNote) {
+        writeDelta(tick);
+        ensureCapacity(6);
+        buffer.put((byte) META).put((byte) META_TEMPO).put((byte) 3)
+                .put((byte) (microsecondsPerQuarterNote >> 16)).put((byte) (microsecondsPerQuarterNote >> 8)).put((byte) microsecondsPerQuarterNote);
+        // Meta events cancel running status.
+        runningStatus = 0;
+    }
+
+    // Ends the current track at the tick of its last event.
+    public void endTrack() {
+        if (-1 == trackLengthOffset) {
+            throw new IllegalStateException("No track was started.");
+        }
+        writeDelta(lastTick);
+        ensureCapacity(3);
+        buffer.put((byte) META).put((byte) META_END_OF_TRACK).put((byte) 0);
+        buffer.putInt(trackLengthOffset, buffer.position() - trackLengthOffset - 4);
+        trackLengthOffset = -1;
+        trackCount++;
+    }
+
+    /**
+     * Adds a track that was encoded separately.
+     *
+     * @param track a complete track, as returned by toByteArray on an encoder started with beginTracks.
+     */
+    public void addTrack(final byte[] track) {
+        if (-1 != trackLengthOffset) {
+            throw new IllegalStateException("The previous track wasn't ended.");
+        }
+        ensureCapacity(track.length);
+        buffer.put(track);
+        trackCount++;
+    }
+
+    /**
+     * @return a read only view of the finished file.  Only valid until the encoder is used again.
+     */
+    public ByteBuffer finish() {
+        if (-1 != trackLengthOffset) {
+            throw new IllegalStateException("The last track wasn't ended.");
+        }
+        if (header) {
+            buffer.putShort(TRACK_COUNT_OFFSET, (short) trackCount);
+        }
+        final ByteBuffer file = buffer.duplicate();
+        file.flip();
+        return file.asReadOnlyBuffer();
+    }
+
+    public byte[] toByteArray() {
+        final ByteBuffer file = finish();
+        final byte[] bytes = new byte[file.remaining()];
+        file.get(bytes);
+        return bytes;
+    }
+
+    public void writeTo(final WritableByteChannel channel) throws IOException {
+        final ByteBuffer file = finish();
+        while (file.hasRemaining()) {
+            channel.write(file);
+        }
+    }
+
+    public void writeTo(final OutputStream out) throws IOException {
+        final ByteBuffer file = finish();
+        // The buffer is never direct, so its backing array can be written without copying.
+        out.write(buffer.array(), buffer.arrayOffset(), file.remaining());
+    }
+
+    private void writeDelta(final int tick) {
+        if (-1 == trackLengthOffset) {
+            throw new IllegalStateException("No track was started.");
+        }
+        if (tick < lastTick) {
+            throw new IllegalArgumentException(String.format("Event at tick %s is before the previous event at tick %s.", tick, lastTick));
+        }
+        if (tick - lastTick > MAX_DELTA) {
+            throw new IllegalArgumentException(String.format("Event at tick %s is too far after the previous event at tick %s.", tick, lastTick));
+        }
+        // Up to 4 bytes of delta plus the largest event.
+        ensureCapacity(10);
+        int delta = tick - lastTick;
+        lastTick = tick;
+
+        // Variable length quantity, 7 bits per byte with the high bit set on all but the last.
+        int bytes = delta & 0x7F;
+        while (0 != (delta >>>= 7)) {
+            bytes = (bytes << 8) | 0x80 | (delta & 0x7F);
+        }
+        while (true) {
+            buffer.put((byte) bytes);
+            if (0 == (bytes & 0x80)) {
+                break;
+            }
+            bytes >>>= 8;
+        }
+    }
+
+    private void writeStatus(final int status) {
+        if (status != runningStatus) {
+            buffer.put((byte) status);
+            runningStatus = status;
+        }
+    }
+
+    private void checkData(final int value, final int tick) {
+        if (value < 0 || value > 127) {
+            throw new IllegalArgumentException(String.format("Cannot add a note with the value %s at tick %s", value, tick));
+        }
+    }
+
+    private void ensureCapacity(final int bytes) {
+        if (buffer.remaining() < bytes) {
+            final ByteBuffer larger = ByteBuffer.wrap(Arrays.copyOf(buffer.array(), Math.max(buffer.capacity() * 2, buffer.position() + bytes)));
+            larger.position(buffer.position());
+            buffer = larger;
+        }
+    }
+}
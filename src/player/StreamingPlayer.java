@@ -0,0 +1,324 @@
+package player;
+
+import model.Song;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays songs by sending midi messages straight to a receiver as they come due, compiling each song only a little ahead
+ * of what is playing instead of building a whole sequence first.  The first note plays as soon as the first measures
+ * are compiled however long the song is, and only the notes of the next few measures are held at any time.
+ *
+ * Each song is played by its own scheduler thread, which waits on a Clock until the next message is due, usually the
+ * system clock.  How late each message is sent is measured and reported once the song ends.
+ */
+public class StreamingPlayer implements Player {
+
+    // How many quarter notes ahead of the next message measures are compiled, a measure of common time.
+    private static final int LOOKAHEAD_QUARTER_NOTES = 4;
+
+    // The tempo midi plays at until a song sets one, 120 quarter notes a minute.
+    private static final int DEFAULT_MICROSECONDS_PER_QUARTER_NOTE = 500000;
+
+    // How long before a message is due the scheduler stops parking and yields until it is.
+    private static final long SPIN_NANOS = TimeUnit.MICROSECONDS.toNanos(500);
+
+    private static final int CHANNEL = 0;
+    private static final int VELOCITY = 100;
+    private static final int ALL_NOTES_OFF = 123;
+
+    // Where messages are sent, or null to send them to the default receiver.
+    private final Receiver receiver;
+
+    // Whether progress is printed to the console.
+    private final boolean verbose;
+
+    // When messages are due, and waits until they are.
+    private final Clock clock;
+
+    public StreamingPlayer() {
+        this(null, true);
+    }
+
+    /**
+     * @param receiver where to send the messages, or null to open the default receiver, usually the default
+     *                 synthesizer, for each song.  A receiver given here is left open.
+     * @param verbose whether to print progress to the console.
+     */
+    public StreamingPlayer(final Receiver receiver, final boolean verbose) {
+        this(receiver, verbose, Clock.SYSTEM);
+    }
+
+    /**
+     * @param receiver where to send the messages, or null to open the default receiver for each song.
+     * @param verbose whether to print progress to the console.
+     * @param clock when messages are due and how to wait until they are.
+     */
+    public StreamingPlayer(final Receiver receiver, final boolean verbose, final Clock clock) {
+        this.receiver = receiver;
+        this.verbose = verbose;
+        this.clock = clock;
+    }
+
+    @Override
+    public void play(final Song song) throws MidiUnavailableException {
+        playAsync(song).join();
+    }
+
+    @Override
+    public CompletableFuture<Void> playAsync(final Song song) throws MidiUnavailableException {
+        final CompletableFuture<Jitter> playing = stream(song);
+        final CompletableFuture<Void> done = playing.thenApply(jitter -> null);
+        // Cancelling the returned future stops the song.
+        done.whenComplete((ignored, e) -> {
+            if (done.isCancelled()) {
+                playing.cancel(false);
+            }
+        });
+        return done;
+    }
+
+    /**
+     * Starts playing the song and returns without waiting for it to finish.  Cancelling the returned future stops the
+     * song and turns off any notes still playing.
+     *
+     * @param song the song to play.
+     * @return completes with how late the messages were sent once the song has finished playing.
+     */
+    public CompletableFuture<Jitter> stream(final Song song) throws MidiUnavailableException {
+        log("Loading " + song.getTitle());
+        final TimelineStream stream = new TimelineCompiler(false).stream(song);
+        final Receiver target = null != receiver ? receiver : MidiSystem.getReceiver();
+
+        final CompletableFuture<Jitter> done = new CompletableFuture<>();
+        final Thread scheduler = new Thread(() -> {
+            try {
+                final Jitter jitter = schedule(stream, target, done);
+                log("Done, " + jitter);
+                done.complete(jitter);
+            } catch (InvalidMidiDataException | RuntimeException e) {
+                done.completeExceptionally(e);
+            } finally {
+                if (null == receiver) {
+                    target.close();
+                }
+            }
+        }, "Streaming " + song.getTitle());
+        scheduler.setDaemon(true);
+        scheduler.setPriority(Thread.MAX_PRIORITY);
+        // Wakes the scheduler if the song is cancelled while it waits.
+        done.whenComplete((jitter, e) -> LockSupport.unpark(scheduler));
+
+        log("Playing " + song.getTitle());
+        scheduler.start();
+        return done;
+    }
+
+    // Sends each message of the stream to the receiver when it is due, until the song ends or is cancelled.
+    private Jitter schedule(final TimelineStream stream, final Receiver target, final CompletableFuture<?> done)
+            throws InvalidMidiDataException {
+        final EventQueue events = new EventQueue();
+        final TimelineStream.Listener listener = new TimelineStream.Listener() {
+            @Override
+            public void note(final int voice, final int tick, final int duration, final int pitch) {
+                events.add(TimelineEvents.toEvent(tick, TimelineEvents.NOTE_ON, pitch));
+                events.add(TimelineEvents.toEvent(tick + duration,
+                        0 == duration ? TimelineEvents.EMPTY_NOTE_OFF : TimelineEvents.NOTE_OFF, pitch));
+            }
+
+            @Override
+            public void tempo(final int tick, final int microsecondsPerQuarterNote) {
+                events.add(TimelineEvents.toEvent(tick, TimelineEvents.TEMPO, microsecondsPerQuarterNote));
+            }
+        };
+        final int lookahead = LOOKAHEAD_QUARTER_NOTES * stream.getTicksPerQuarterNote();
+        // Every measure starting before this tick has been compiled.
+        int compiled = stream.compileUntil(lookahead, listener);
+
+        // Ticks are turned into times counted from the last tempo change.
+        long tempoNanos = clock.nanoTime();
+        int tempoTick = 0;
+        long nanosPerQuarterNote = TimeUnit.MICROSECONDS.toNanos(DEFAULT_MICROSECONDS_PER_QUARTER_NOTE);
+        final int ticksPerQuarterNote = stream.getTicksPerQuarterNote();
+
+        int messages = 0;
+        long totalLateness = 0;
+        long maxLateness = 0;
+        while (!done.isDone()) {
+            if (events.isEmpty()) {
+                if (Integer.MAX_VALUE == compiled) {
+                    break;
+                }
+                compiled = stream.compileUntil(compiled + lookahead, listener);
+                continue;
+            }
+            final long event = events.peek();
+            final int tick = TimelineEvents.getTick(event);
+            // Keep the measures a little ahead, which also brings in any events of later measures due before this one.
+            if (compiled < tick + lookahead) {
+                compiled = stream.compileUntil(tick + lookahead, listener);
+                continue;
+            }
+
+            // Divided last, so a tick that isn't a whole number of nanoseconds doesn't add up to drift.
+            final long due = tempoNanos + (tick - tempoTick) * nanosPerQuarterNote / ticksPerQuarterNote;
+            long wait;
+            while ((wait = due - clock.nanoTime()) > 0 && !done.isDone()) {
+                clock.waitNanos(wait);
+            }
+            if (done.isDone()) {
+                break;
+            }
+            events.poll();
+            if (TimelineEvents.TEMPO == TimelineEvents.getKind(event)) {
+                // Counted from when the change was due rather than when it was seen, so lateness doesn't add up.
+                tempoNanos = due;
+                tempoTick = tick;
+                nanosPerQuarterNote = TimeUnit.MICROSECONDS.toNanos(TimelineEvents.getIndex(event));
+                continue;
+            }
+            final int command = TimelineEvents.isNoteOff(event) ? ShortMessage.NOTE_OFF : ShortMessage.NOTE_ON;
+            target.send(new ShortMessage(command, CHANNEL, TimelineEvents.getIndex(event), VELOCITY), -1);
+
+            final long lateness = clock.nanoTime() - due;
+            messages++;
+            totalLateness += lateness;
+            maxLateness = Math.max(maxLateness, lateness);
+        }
+        if (done.isDone()) {
+            // Stopped part way through, so some notes may still be on.
+            target.send(new ShortMessage(ShortMessage.CONTROL_CHANGE, CHANNEL, ALL_NOTES_OFF, 0), -1);
+        }
+        return new Jitter(messages, totalLateness, maxLateness);
+    }
+
+    private void log(final String message) {
+        if (verbose) {
+            System.out.println(message);
+        }
+    }
+
+    /**
+     * Where the scheduler reads the time and waits for messages to come due.  A clock of its own lets a caller decide
+     * how time passes, such as a test checking when each message is sent without waiting for it.
+     */
+    public interface Clock {
+
+        // The system's monotonic clock.  Parking can oversleep, so the last moment before a message is due is spent
+        // yielding instead.
+        Clock SYSTEM = new Clock() {
+            @Override
+            public long nanoTime() {
+                return System.nanoTime();
+            }
+
+            @Override
+            public void waitNanos(final long nanos) {
+                if (nanos > SPIN_NANOS) {
+                    LockSupport.parkNanos(nanos - SPIN_NANOS);
+                } else {
+                    Thread.yield();
+                }
+            }
+        };
+
+        long nanoTime();
+
+        /**
+         * Waits for up to the time given.  May return early, such as when the scheduler is unparked because the song
+         * was cancelled, after which the scheduler checks the time again.
+         */
+        void waitNanos(long nanos);
+    }
+
+    /**
+     * How late the messages of a song were sent, from when each was due to when the receiver had been given it.
+     */
+    public static class Jitter {
+
+        private final int messages;
+        private final long totalNanos;
+        private final long maxNanos;
+
+        private Jitter(final int messages, final long totalNanos, final long maxNanos) {
+            this.messages = messages;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+        }
+
+        public int getMessages() {
+            return messages;
+        }
+
+        public long getMeanMicroseconds() {
+            return 0 == messages ? 0 : TimeUnit.NANOSECONDS.toMicros(totalNanos / messages);
+        }
+
+        public long getMaxMicroseconds() {
+            return TimeUnit.NANOSECONDS.toMicros(maxNanos);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s messages sent a mean of %sus and at most %sus late", messages, getMeanMicroseconds(), getMaxMicroseconds());
+        }
+    }
+
+    // A min heap of the events waiting to be sent, packed as in TimelineEvents.  Only holds the events of the measures
+    // compiled ahead, so it stays small however long the song is.
+    private static class EventQueue {
+
+        private long[] heap = new long[64];
+        private int size = 0;
+
+        private boolean isEmpty() {
+            return 0 == size;
+        }
+
+        private long peek() {
+            return heap[0];
+        }
+
+        private void add(final long event) {
+            if (size == heap.length) {
+                heap = Arrays.copyOf(heap, size * 2);
+            }
+            int i = size++;
+            while (i > 0 && heap[(i - 1) / 2] > event) {
+                heap[i] = heap[(i - 1) / 2];
+                i = (i - 1) / 2;
+            }
+            heap[i] = event;
+        }
+
+        private long poll() {
+            final long first = heap[0];
+            final long last = heap[--size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && heap[child + 1] < heap[child]) {
+                    child++;
+                }
+                if (last <= heap[child]) {
+                    break;
+                }
+                heap[i] = heap[child];
+                i = child;
+            }
+            heap[i] = last;
+            return first;
+        }
+    }
+}
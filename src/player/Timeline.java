@@ -0,0 +1,135 @@
+package player;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A song compiled down to the notes and tempo changes it plays, with repeats and alternate endings already expanded and
+ * every pitch resolved.  Everything is held in primitive arrays indexed by note or tempo change, so a timeline can be
+ * kept and played, rendered, or analyzed any number of times without walking the song again.  Timelines are immutable
+ * and safe to share between threads.
+ *
+ * Built by the TimelineCompiler.
+ */
+public class Timeline {
+
+    // The title of the song the timeline was compiled from.
+    private final String title;
+
+    // The number of ticks in a quarter note.
+    private final int ticksPerQuarterNote;
+
+    // The names of the voices, indexed by the voice number of each note.
+    private final List<String> voiceNames;
+
+    // The tick each note starts on, how many ticks it lasts, its midi pitch, and its voice number, in the order the
+    // notes were compiled.  Each voice's notes are in time order.
+    private final int[] noteStarts;
+    private final int[] noteDurations;
+    private final int[] notePitches;
+    private final int[] noteVoices;
+
+    // The tick each tempo change happens on and the new tempo in microseconds per quarter note, in time order.
+    private final int[] tempoTicks;
+    private final int[] tempoMicrosecondsPerQuarterNote;
+
+    // The notes of each voice in time order, indexed by voice number.
+    private final int[][] voiceNotes;
+
+    // The tick the last note ends on.
+    private final int length;
+
+    Timeline(final String title, final int ticksPerQuarterNote, final List<String> voiceNames,
+             final int[] noteStarts, final int[] noteDurations, final int[] notePitches, final int[] noteVoices,
+             final int[] tempoTicks, final int[] tempoMicrosecondsPerQuarterNote) {
+        this.title = title;
+        this.ticksPerQuarterNote = ticksPerQuarterNote;
+        this.voiceNames = Collections.unmodifiableList(voiceNames);
+        this.noteStarts = noteStarts;
+        this.noteDurations = noteDurations;
+        this.notePitches = notePitches;
+        this.noteVoices = noteVoices;
+        this.tempoTicks = tempoTicks;
+        this.tempoMicrosecondsPerQuarterNote = tempoMicrosecondsPerQuarterNote;
+
+        int end = 0;
+        for (int i = 0; i < noteStarts.length; i++) {
+            end = Math.max(end, noteStarts[i] + noteDurations[i]);
+        }
+        this.length = end;
+
+        final int[] voiceNoteCounts = new int[voiceNames.size()];
+        for (int voice : noteVoices) {
+            voiceNoteCounts[voice]++;
+        }
+        this.voiceNotes = new int[voiceNames.size()][];
+        for (int voice = 0; voice < voiceNotes.length; voice++) {
+            voiceNotes[voice] = new int[voiceNoteCounts[voice]];
+            voiceNoteCounts[voice] = 0;
+        }
+        for (int i = 0; i < noteVoices.length; i++) {
+            voiceNotes[noteVoices[i]][voiceNoteCounts[noteVoices[i]]++] = i;
+        }
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public int getTicksPerQuarterNote() {
+        return ticksPerQuarterNote;
+    }
+
+    public List<String> getVoiceNames() {
+        return voiceNames;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public int getNoteCount() {
+        return noteStarts.length;
+    }
+
+    public int getNoteStart(final int note) {
+        return noteStarts[note];
+    }
+
+    public int getNoteDuration(final int note) {
+        return noteDurations[note];
+    }
+
+    public int getNotePitch(final int note) {
+        return notePitches[note];
+    }
+
+    public int getNoteVoice(final int note) {
+        return noteVoices[note];
+    }
+
+    public int getVoiceNoteCount(final int voice) {
+        return voiceNotes[voice].length;
+    }
+
+    /**
+     * @param voice the voice number.
+     * @param position the position of the note within the voice.
+     * @return the index of the voice's note at the position, usable with the other note getters.
+     */
+    public int getVoiceNote(final int voice, final int position) {
+        return voiceNotes[voice][position];
+    }
+
+    public int getTempoCount() {
+        return tempoTicks.length;
+    }
+
+    public int getTempoTick(final int tempo) {
+        return tempoTicks[tempo];
+    }
+
+    public int getTempoMicrosecondsPerQuarterNote(final int tempo) {
+        return tempoMicrosecondsPerQuarterNote[tempo];
+    }
+}
@@ -0,0 +1,595 @@
+package player;
+
+import model.Fraction;
+import model.Measure;
+import model.PlayOrder;
+import model.Song;
+import model.Voice;
+import model.entities.Chord;
+import model.entities.MeasureEntity;
+import model.entities.Note;
+import model.entities.Rest;
+import model.entities.Tuplet;
+import model.enums.Accidental;
+import model.enums.BarLineEnum;
+import model.enums.NoteEnum;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Compiles a song into a Timeline by following each voice's play order and working out the tick, duration, and pitch
+ * of every note.  The song isn't changed.
+ *
+ * Each voice is compiled in two passes.  The first follows the play order, adding up the duration of each measure played
+ * to get the tick it starts on.  The second works out the notes of every measure played, once however many times it is
+ * played, with ticks counted from the start of the measure.  The measures don't depend on each other, so long voices
+ * have their measures compiled in parallel on a fork/join pool.  The notes are then placed at each tick the measure
+ * starts on.
+ *
+ * A song can also be streamed, compiling each voice's measures in play order only as they are asked for.
+ */
+public class TimelineCompiler {
+
+    // The fewest ticks per quarter note a song is compiled with.  Songs with durations that don't divide it evenly are
+    // given more, so every note lasts a whole number of ticks.
+    public static final int TICKS_PER_QUARTER_NOTE = 16;
+
+    // The most ticks per quarter note a midi file can hold.
+    private static final int MAX_TICKS_PER_QUARTER_NOTE = 0x7FFF;
+
+    // Used for songs that would need more than the most, and for streams, which can't look ahead at every duration.
+    // Durations are rounded down to the tick instead.  Divides evenly by every tuplet and most written durations.
+    static final int ROUNDED_TICKS_PER_QUARTER_NOTE = 960;
+
+    // Voices playing at least this many different measures have them compiled in parallel.  Shorter voices compile
+    // faster than they can be handed to the pool.
+    private static final int PARALLEL_MEASURES = 256;
+
+    // Multiplies a duration in whole notes to get one in eighth notes.  The tick resolution is counted per eighth note,
+    // which plays as a midi quarter note.
+    private static final long EIGHTHS_PER_WHOLE_NOTE = Fraction.of(8, 1);
+
+    // Durations with numerators up to this are turned into ticks without reducing them first, which can't overflow.
+    private static final long MAX_UNREDUCED_NUMERATOR = Long.MAX_VALUE / 8 / MAX_TICKS_PER_QUARTER_NOTE;
+
+    // Whether progress is printed to the console as the song is compiled.
+    private final boolean verbose;
+
+    // Each thread reuses its accidental state from measure to measure.
+    private static final ThreadLocal<Accidentals> ACCIDENTALS = ThreadLocal.withInitial(Accidentals::new);
+
+    // Runs the per measure compiling of long voices.
+    private final ForkJoinPool pool;
+
+    public TimelineCompiler() {
+        this(true);
+    }
+
+    /**
+     * @param verbose whether to print progress to the console.  Turn this off when compiling many songs.
+     */
+    public TimelineCompiler(final boolean verbose) {
+        this(verbose, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param verbose whether to print progress to the console.  Turn this off when compiling many songs.
+     * @param pool the pool to compile the measures of long voices on.
+     */
+    public TimelineCompiler(final boolean verbose, final ForkJoinPool pool) {
+        this.verbose = verbose;
+        this.pool = pool;
+    }
+
+    /**
+     * Compiles the song into a timeline.  The timeline is given the fewest ticks per quarter note that give every note a
+     * whole number of ticks, at least TICKS_PER_QUARTER_NOTE.  That is the least common multiple of the denominators of
+     * the note durations, measured in quarter notes.
+     *
+     * @param song the song to compile.
+     * @return the notes and tempo changes of every voice with repeats and alternate endings expanded.
+     */
+    public Timeline compile(final Song song) {
+        final Timeline timeline = compile(song, true);
+        return null != timeline ? timeline : compile(song, false);
+    }
+
+    // Compiles the song with as many ticks per quarter note as it needs when exact, returning null if that is more than a
+    // midi file can hold.  Otherwise compiles it with durations rounded down to the tick.
+    private Timeline compile(final Song song, final boolean exact) {
+        final Events events = new Events(exact ? TICKS_PER_QUARTER_NOTE : ROUNDED_TICKS_PER_QUARTER_NOTE);
+        final List<PlayOrder> playOrders = new ArrayList<>();
+        final List<Passes> voicePasses = new ArrayList<>();
+
+        // Every voice is followed before any notes are placed, since any of them can need more ticks per quarter note.
+        boolean setTempo = true; // only need to set the tempo from the first voice.  All other voices should have the same tempo.
+        for (Map.Entry<String, Voice> entry : song.getVoices().entrySet()) {
+            log("Adding voice " + entry.getKey() + " to track");
+            if (entry.getValue().getMeasures().isEmpty()) {
+                continue;
+            }
+            events.voiceNames.add(entry.getKey());
+            final PlayOrder playOrder = entry.getValue().getPlayOrder();
+            final Passes passes = followPlayOrder(playOrder, setTempo, exact, events);
+            if (null == passes) {
+                return null;
+            }
+            playOrders.add(playOrder);
+            voicePasses.add(passes);
+            setTempo = false;
+        }
+
+        // Iterate through each voice, adding notes to the timeline.
+        for (int voice = 0; voice < playOrders.size(); voice++) {
+            final PlayOrder playOrder = playOrders.get(voice);
+            final Passes passes = voicePasses.get(voice);
+            // Voices followed before the song needed more ticks per quarter note are scaled up, which keeps them exact.
+            final int scale = events.ticksPerQuarterNote / passes.ticksPerQuarterNote;
+            final PitchTable pitches = PitchTable.forKey(playOrder.getMeasure(0).getKey().getKey());
+            final MeasureNotes[] measures = compileMeasures(playOrder, passes, pitches, events.ticksPerQuarterNote);
+            for (int i = 0; i < passes.count; i++) {
+                events.addNotes(measures[passes.positions[i]], Math.multiplyExact(passes.ticks[i], scale), voice);
+            }
+        }
+        return events.toTimeline(song.getTitle());
+    }
+
+    private static long getTicksPerQuarterNote(final Measure measure, long ticks) {
+        final long noteLength = measure.getLastNoteLength();
+        for (MeasureEntity entity : measure.getEntities()) {
+            ticks = getTicksPerQuarterNote(entity, entity.getMultiplier(), noteLength, ticks);
+            if (ticks > MAX_TICKS_PER_QUARTER_NOTE) {
+                break;
+            }
+        }
+        return ticks;
+    }
+
+    // The ticks per quarter note needed for the entity's notes as well as those already seen.  Follows handleEntity.
+    private static long getTicksPerQuarterNote(final MeasureEntity entity, final long multiplier, final long noteLength, final long ticks) {
+        if (!(entity instanceof Rest || entity instanceof Note || entity instanceof Chord || entity instanceof Tuplet)) {
+            return ticks;
+        }
+        long needed = ticks;
+        // Most notes already come out to a whole number of ticks, which is checked without reducing the fraction.
+        final long numerator = (long) Fraction.getNumerator(noteLength) * Fraction.getNumerator(multiplier);
+        final long denominator = (long) Fraction.getDenominator(noteLength) * Fraction.getDenominator(multiplier);
+        if (numerator > MAX_UNREDUCED_NUMERATOR || 0 != numerator * 8 * ticks % denominator) {
+            // A duration of n/d eighth notes, each a midi quarter note, needs a multiple of d ticks per quarter note.
+            final long eighths = Fraction.multiply(Fraction.multiply(noteLength, multiplier), EIGHTHS_PER_WHOLE_NOTE);
+            needed = Fraction.lcm(ticks, Fraction.getDenominator(eighths));
+        }
+        if (entity instanceof Tuplet) {
+            final List<MeasureEntity> entities = ((Tuplet) entity).getEntities();
+            for (int i = 0; i < entities.size() && needed <= MAX_TICKS_PER_QUARTER_NOTE; i++) {
+                needed = getTicksPerQuarterNote(entities.get(i), Fraction.divide(multiplier, entities.size()), noteLength, needed);
+            }
+        }
+        return needed;
+    }
+
+    /**
+     * Starts compiling the song a few measures at a time, so it can be played before all of it has been compiled.  Streams
+     * have ROUNDED_TICKS_PER_QUARTER_NOTE ticks per quarter note, so nothing is read before the first measure.
+     *
+     * @param song the song to compile.
+     * @return a stream that compiles each voice's measures in play order as they are asked for.
+     */
+    public TimelineStream stream(final Song song) {
+        return new TimelineStream(this, song);
+    }
+
+    // The first pass over a voice.  Follows the play order, recording the position of each measure played and the tick
+    // it starts on, which is the sum of the durations of the measures played before it.  Tempo changes are added to the
+    // events if asked for.  When exact, the ticks per quarter note are raised as measures need them, and null is
+    // returned if the song needs more than a midi file can hold.
+    private Passes followPlayOrder(final PlayOrder playOrder, final boolean setTempo, final boolean exact, final Events events) {
+        final Passes passes = new Passes(playOrder.size(), events.ticksPerQuarterNote);
+        final int[] durations = new int[playOrder.size()];
+        Arrays.fill(durations, -1);
+
+        int tick = 0;
+        // The pass is 1 the first time through a section and will match with the alternate ending count when reached.
+        int position = 0;
+        int pass = 1;
+        Measure currentMeasure = playOrder.getMeasure(position);
+        while(true) {
+            if (setTempo && null != currentMeasure.getTempo()) {
+                log("Setting tempo to " + currentMeasure.getTempo());
+                // If the default length is not a quarter note, need to scale the tempo to match.
+                events.addTempo(tick, currentMeasure.getTempo(), currentMeasure.getLastNoteLength());
+            }
+            passes.add(position, tick);
+            if (-1 == durations[position]) {
+                int duration = exact ? getExactDurationTick(currentMeasure, passes.ticksPerQuarterNote) : -1;
+                if (-1 == duration) {
+                    if (exact) {
+                        final int scale = raiseTicksPerQuarterNote(currentMeasure, passes, durations, events);
+                        if (0 == scale) {
+                            return null;
+                        }
+                        tick = Math.multiplyExact(tick, scale);
+                    }
+                    duration = getDurationTick(currentMeasure, passes.ticksPerQuarterNote);
+                }
+                durations[position] = duration;
+            }
+            tick = Math.addExact(tick, durations[position]);
+
+            final int nextPosition = playOrder.getNextPosition(position, pass);
+            if (PlayOrder.END == nextPosition) {
+                break;
+            }
+            // Report any repeat or alternate ending being followed.
+            final Measure nextMeasure = playOrder.getMeasure(nextPosition);
+            if (currentMeasure.getEndLine() == BarLineEnum.REPEAT_END) {
+                if (pass == 1) {
+                    log("Repeating back to measure " + nextMeasure.getIndex());
+                }
+            } else if (null != currentMeasure.getNextMeasure().getAlternateEnding()) {
+                log("Going to alternate ending " + pass + " at measure " + nextMeasure.getIndex());
+            }
+            pass = playOrder.getNextPass(position, pass);
+            position = nextPosition;
+            currentMeasure = nextMeasure;
+        }
+
+        // Measures that are never played still count towards the ticks per quarter note, the same as when streaming.
+        for (position = 0; exact && position < durations.length; position++) {
+            if (-1 == durations[position] && 0 == raiseTicksPerQuarterNote(playOrder.getMeasure(position), passes, durations, events)) {
+                return null;
+            }
+        }
+        return passes;
+    }
+
+    // Raises the voice's ticks per quarter note, and the song's, to give every note of the measure a whole number of
+    // ticks.  The ticks worked out so far are scaled up to match.  Returns what they were multiplied by, or 0 if it would
+    // take more ticks per quarter note than a midi file can hold.
+    private static int raiseTicksPerQuarterNote(final Measure measure, final Passes passes, final int[] durations, final Events events) {
+        final long needed = getTicksPerQuarterNote(measure, passes.ticksPerQuarterNote);
+        if (needed == passes.ticksPerQuarterNote) {
+            return 1;
+        }
+        if (needed > MAX_TICKS_PER_QUARTER_NOTE || !events.raiseTicksPerQuarterNote((int) needed)) {
+            return 0;
+        }
+        // Everything so far was a whole number of ticks, so it stays exact with more of them.
+        final int scale = (int) needed / passes.ticksPerQuarterNote;
+        passes.scale(scale);
+        for (int position = 0; position < durations.length; position++) {
+            if (-1 != durations[position]) {
+                durations[position] = Math.multiplyExact(durations[position], scale);
+            }
+        }
+        return scale;
+    }
+
+    // The second pass over a voice.  Compiles each measure that is played, indexed by position.
+    private MeasureNotes[] compileMeasures(final PlayOrder playOrder, final Passes passes, final PitchTable pitches,
+                                           final int ticksPerQuarterNote) {
+        final MeasureNotes[] measures = new MeasureNotes[playOrder.size()];
+        final int[] played = passes.getPlayedPositions();
+        if (played.length < PARALLEL_MEASURES) {
+            for (int position : played) {
+                measures[position] = compileMeasure(playOrder.getMeasure(position), pitches, ticksPerQuarterNote);
+            }
+            return measures;
+        }
+        try {
+            pool.submit(() -> Arrays.stream(played).parallel()
+                    .forEach(position -> measures[position] = compileMeasure(playOrder.getMeasure(position), pitches, ticksPerQuarterNote))).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while compiling measures", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Unable to compile measures", e.getCause());
+        }
+        return measures;
+    }
+
+    // Works out the notes of the measure, with ticks counted from its start.  Accidentals carry through the measure.
+    MeasureNotes compileMeasure(final Measure measure, final PitchTable pitches, final int ticksPerQuarterNote) {
+        final MeasureNotes notes = new MeasureNotes();
+        final Accidentals accidentals = ACCIDENTALS.get();
+        accidentals.reset();
+        final long noteLength = measure.getLastNoteLength();
+        int tick = 0;
+        for (MeasureEntity entity : measure.getEntities()) {
+            tick += handleEntity(entity, entity.getMultiplier(), accidentals, pitches, noteLength, ticksPerQuarterNote, tick, notes);
+        }
+        return notes;
+    }
+
+    // How many ticks the measure lasts, without working out any notes.  Matches the ticks handleEntity returns for each
+    // entity.
+    int getDurationTick(final Measure measure, final int ticksPerQuarterNote) {
+        final long noteLength = measure.getLastNoteLength();
+        int ticks = 0;
+        for (MeasureEntity entity : measure.getEntities()) {
+            if (entity instanceof Rest || entity instanceof Note || entity instanceof Chord || entity instanceof Tuplet) {
+                ticks = Math.addExact(ticks, getDurationTick(entity.getMultiplier(), noteLength, ticksPerQuarterNote));
+            }
+        }
+        return ticks;
+    }
+
+    // The ticks the measure lasts, or -1 if any of its notes don't last a whole number of ticks.  Lets the first pass
+    // check the ticks per quarter note while adding up the measure, without reading it twice.
+    private static int getExactDurationTick(final Measure measure, final int ticksPerQuarterNote) {
+        final long noteLength = measure.getLastNoteLength();
+        long ticks = 0;
+        for (MeasureEntity entity : measure.getEntities()) {
+            if (entity instanceof Rest || entity instanceof Note || entity instanceof Chord || entity instanceof Tuplet) {
+                final long multiplier = entity.getMultiplier();
+                final long numerator = (long) Fraction.getNumerator(noteLength) * Fraction.getNumerator(multiplier);
+                final long denominator = (long) Fraction.getDenominator(noteLength) * Fraction.getDenominator(multiplier);
+                if (numerator > MAX_UNREDUCED_NUMERATOR || 0 != numerator * 8 * ticksPerQuarterNote % denominator
+                        || entity instanceof Tuplet && ticksPerQuarterNote != getTicksPerQuarterNote(entity, multiplier, noteLength, ticksPerQuarterNote)) {
+                    return -1;
+                }
+                ticks += numerator * 8 * ticksPerQuarterNote / denominator;
+                if (ticks > Integer.MAX_VALUE) {
+                    return -1;
+                }
+            }
+        }
+        return (int) ticks;
+    }
+
+    // Adds the entity's notes at the tick and returns how many ticks it lasts.  The multiplier replaces the entity's own
+    // when it is part of a chord or tuplet.
+    private int handleEntity(final MeasureEntity entity, final long multiplier, final Accidentals accidentals,
+                             final PitchTable pitches, final long noteLength, final int ticksPerQuarterNote, final int tick,
+                             final MeasureNotes notes) {
+        // Rests simply move the song along.
+        if (entity instanceof Rest) {
+            return getDurationTick(multiplier, noteLength, ticksPerQuarterNote);
+        }
+        // Notes add an event for their duration.
+        if (entity instanceof Note) {
+            final Note note = (Note) entity;
+            final int durationTick = getDurationTick(multiplier, noteLength, ticksPerQuarterNote);
+            notes.add(tick, durationTick, pitches.getPitch(note.getNoteEnum(), accidentals.get(note), note.getOctave()));
+            return durationTick;
+        }
+        // Chords add each note at the same tick.
+        if (entity instanceof Chord) {
+            final Chord chord = (Chord) entity;
+            for (Note note : chord.getNotes()) {
+                // Ensure the notes are all the same duration.
+                handleEntity(note, multiplier, accidentals, pitches, noteLength, ticksPerQuarterNote, tick, notes);
+            }
+            return getDurationTick(multiplier, noteLength, ticksPerQuarterNote);
+        }
+        // Tuplets play out their notes evenly over the course of the duration.
+        if (entity instanceof Tuplet) {
+            final Tuplet tuplet = (Tuplet) entity;
+            final long tupletMultiplier = Fraction.divide(multiplier, tuplet.getEntities().size());
+            final int increment = getDurationTick(tupletMultiplier, noteLength, ticksPerQuarterNote);
+            int tupletTick = tick;
+            for (MeasureEntity tupletEntity : tuplet.getEntities()) {
+                // Ensure each entity doesn't overlap in duration.
+                handleEntity(tupletEntity, tupletMultiplier, accidentals, pitches, noteLength, ticksPerQuarterNote, tupletTick, notes);
+                tupletTick += increment;
+            }
+            return getDurationTick(multiplier, noteLength, ticksPerQuarterNote);
+        }
+        // All other entity types are ignored.
+        return 0;
+    }
+
+    // The ticks a note lasts, worked out from packed Fractions without rounding.  Only rounded down when the song needed
+    // more ticks per quarter note than a midi file can hold.
+    private static int getDurationTick(final long multiplier, final long noteLength, final int ticksPerQuarterNote) {
+        // ex. a quarter note (1/4) is 2 eighth notes, so 2 * 16 = 32 ticks.
+        final long numerator = (long) Fraction.getNumerator(noteLength) * Fraction.getNumerator(multiplier);
+        final long denominator = (long) Fraction.getDenominator(noteLength) * Fraction.getDenominator(multiplier);
+        final long ticks;
+        if (numerator <= MAX_UNREDUCED_NUMERATOR) {
+            ticks = numerator * 8 * ticksPerQuarterNote / denominator;
+        } else {
+            final long eighths = Fraction.multiply(Fraction.multiply(noteLength, multiplier), EIGHTHS_PER_WHOLE_NOTE);
+            ticks = (long) Fraction.getNumerator(eighths) * ticksPerQuarterNote / Fraction.getDenominator(eighths);
+        }
+        if (ticks > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Duration is too long: " + Fraction.toString(Fraction.multiply(noteLength, multiplier)));
+        }
+        return (int) ticks;
+    }
+
+    // Converts a tempo in beats per minute, where the beat is the default note duration, to microseconds per quarter note.
+    static int getMicrosecondsPerQuarterNote(final int tempo, final long noteLength) {
+        // scale by the note duration divided by the default duration (since tempo is given in eighth note beats per minute).
+        final long scaledTempo = (long) tempo * 8 * Fraction.getNumerator(noteLength) / Fraction.getDenominator(noteLength);
+        return (int) (60000000 / scaledTempo);
+    }
+
+    private void log(final String message) {
+        if (verbose) {
+            System.out.println(message);
+        }
+    }
+
+    // Collects the notes and tempo changes of a timeline as they are compiled.
+    private static class Events {
+
+        // Raised as voices need more, which scales up the tempo changes already added.
+        private int ticksPerQuarterNote;
+
+        private final List<String> voiceNames = new ArrayList<>();
+
+        private int noteCount = 0;
+        private int[] noteStarts = new int[64];
+        private int[] noteDurations = new int[64];
+        private int[] notePitches = new int[64];
+        private int[] noteVoices = new int[64];
+
+        private int tempoCount = 0;
+        private int[] tempoTicks = new int[4];
+        private int[] tempos = new int[4];
+
+        // Adds the measure's notes, moved to start at the tick.
+        private void addNotes(final MeasureNotes notes, final int tick, final int voice) {
+            if (noteCount + notes.count > noteStarts.length) {
+                final int length = Math.max(noteStarts.length * 2, noteCount + notes.count);
+                noteStarts = Arrays.copyOf(noteStarts, length);
+                noteDurations = Arrays.copyOf(noteDurations, length);
+                notePitches = Arrays.copyOf(notePitches, length);
+                noteVoices = Arrays.copyOf(noteVoices, length);
+            }
+            for (int i = 0; i < notes.count; i++) {
+                noteStarts[noteCount] = tick + notes.starts[i];
+                noteDurations[noteCount] = notes.durations[i];
+                notePitches[noteCount] = notes.pitches[i];
+                noteVoices[noteCount] = voice;
+                noteCount++;
+            }
+        }
+
+        private Events(final int ticksPerQuarterNote) {
+            this.ticksPerQuarterNote = ticksPerQuarterNote;
+        }
+
+        // Makes the ticks per quarter note a multiple of those needed, returning false if that is more than a midi file
+        // can hold.
+        private boolean raiseTicksPerQuarterNote(final int needed) {
+            final long raised = Fraction.lcm(ticksPerQuarterNote, needed);
+            if (raised > MAX_TICKS_PER_QUARTER_NOTE) {
+                return false;
+            }
+            final int scale = (int) raised / ticksPerQuarterNote;
+            for (int i = 0; i < tempoCount; i++) {
+                tempoTicks[i] = Math.multiplyExact(tempoTicks[i], scale);
+            }
+            ticksPerQuarterNote = (int) raised;
+            return true;
+        }
+
+        private void addTempo(final int tick, final int tempo, final long noteLength) {
+            if (tempoCount == tempoTicks.length) {
+                tempoTicks = Arrays.copyOf(tempoTicks, tempoCount * 2);
+                tempos = Arrays.copyOf(tempos, tempoCount * 2);
+            }
+            tempoTicks[tempoCount] = tick;
+            tempos[tempoCount] = getMicrosecondsPerQuarterNote(tempo, noteLength);
+            tempoCount++;
+        }
+
+        private Timeline toTimeline(final String title) {
+            return new Timeline(title, ticksPerQuarterNote, voiceNames,
+                    Arrays.copyOf(noteStarts, noteCount), Arrays.copyOf(noteDurations, noteCount),
+                    Arrays.copyOf(notePitches, noteCount), Arrays.copyOf(noteVoices, noteCount),
+                    Arrays.copyOf(tempoTicks, tempoCount), Arrays.copyOf(tempos, tempoCount));
+        }
+    }
+
+    // The notes of a single measure, with ticks counted from the start of the measure.
+    static class MeasureNotes {
+
+        int count = 0;
+        int[] starts = new int[8];
+        int[] durations = new int[8];
+        int[] pitches = new int[8];
+
+        private void add(final int tick, final int duration, final int pitch) {
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count * 2);
+                durations = Arrays.copyOf(durations, count * 2);
+                pitches = Arrays.copyOf(pitches, count * 2);
+            }
+            starts[count] = tick;
+            durations[count] = duration;
+            pitches[count] = pitch;
+            count++;
+        }
+    }
+
+    // The position of each measure in a voice's play order as it is played, and the tick it starts on.
+    private static class Passes {
+
+        // What the ticks are counted in, which can be fewer than the song ends up with.
+        private int ticksPerQuarterNote;
+
+        private int count = 0;
+        private int[] positions;
+        private int[] ticks;
+
+        // Whether the measure at each position is played at all.
+        private final boolean[] played;
+        private int playedCount = 0;
+
+        private Passes(final int size, final int ticksPerQuarterNote) {
+            this.ticksPerQuarterNote = ticksPerQuarterNote;
+            positions = new int[size];
+            ticks = new int[size];
+            played = new boolean[size];
+        }
+
+        private void add(final int position, final int tick) {
+            if (count == positions.length) {
+                positions = Arrays.copyOf(positions, count * 2);
+                ticks = Arrays.copyOf(ticks, count * 2);
+            }
+            positions[count] = position;
+            ticks[count] = tick;
+            count++;
+            if (!played[position]) {
+                played[position] = true;
+                playedCount++;
+            }
+        }
+
+        private void scale(final int scale) {
+            for (int i = 0; i < count; i++) {
+                ticks[i] = Math.multiplyExact(ticks[i], scale);
+            }
+            ticksPerQuarterNote *= scale;
+        }
+
+        // The positions of the measures played, each once.
+        private int[] getPlayedPositions() {
+            final int[] playedPositions = new int[playedCount];
+            int i = 0;
+            for (int position = 0; position < played.length; position++) {
+                if (played[position]) {
+                    playedPositions[i++] = position;
+                }
+            }
+            return playedPositions;
+        }
+    }
+
+    // The accidentals written on notes earlier in the measure, which carry through to the rest of the notes of the same
+    // letter.  Reset for each measure by moving to a new generation instead of clearing, so nothing is allocated.
+    private static class Accidentals {
+
+        private final Accidental[] accidentals = new Accidental[NoteEnum.values().length];
+
+        // The generation each accidental was written in.  Only those written in the current generation are in effect.
+        private final int[] generations = new int[NoteEnum.values().length];
+        private int generation = 0;
+
+        private void reset() {
+            generation++;
+        }
+
+        // Records any accidental written on the note and returns the one in effect for it, or null to use the key.
+        private Accidental get(final Note note) {
+            final int index = note.getNoteEnum().ordinal();
+            if (null != note.getAccidentalOverride()) {
+                accidentals[index] = note.getAccidentalOverride();
+                generations[index] = generation;
+            }
+            return generations[index] == generation ? accidentals[index] : null;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package player;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * Turns a timeline into midi events ordered by tick.  Each event is packed into a long as its tick, then its kind, then
+ * the index of its note or tempo change in the timeline, so ordering the longs orders the events.  Each voice is put
+ * in order on its own and the voices are then merged through a heap, which costs O(n log k) for k voices instead of
+ * sorting or inserting every event into one list.
+ */
+public class TimelineEvents {
+
+    // Kinds of events, in the order they are played when they share a tick.  Tempo changes come first and notes end
+    // before the next ones start, except for notes without any duration, which have to start before they can end.
+    public static final int TEMPO = 0;
+    public static final int NOTE_OFF = 1;
+    public static final int NOTE_ON = 2;
+    public static final int EMPTY_NOTE_OFF = 3;
+
+    public static int getTick(final long event) {
+        return (int) (event >>> 32);
+    }
+
+    public static int getKind(final long event) {
+        return (int) (event >>> 30) & 3;
+    }
+
+    // The index of the event's note or tempo change in the timeline.
+    public static int getIndex(final long event) {
+        return (int) event & 0x3FFFFFFF;
+    }
+
+    public static boolean isNoteOff(final long event) {
+        final int kind = getKind(event);
+        return NOTE_OFF == kind || EMPTY_NOTE_OFF == kind;
+    }
+
+    /**
+     * @param timeline the timeline to get the events of.
+     * @return the timeline's tempo changes in order.
+     */
+    public static long[] getTempoEvents(final Timeline timeline) {
+        final long[] events = new long[timeline.getTempoCount()];
+        for (int i = 0; i < events.length; i++) {
+            events[i] = toEvent(timeline.getTempoTick(i), TEMPO, i);
+        }
+        return events;
+    }
+
+    /**
+     * @param timeline the timeline to get the events of.
+     * @param voice the voice number.
+     * @return a note on and a note off for each of the voice's notes, in order.
+     */
+    public static long[] getVoiceEvents(final Timeline timeline, final int voice) {
+        final int noteCount = timeline.getVoiceNoteCount(voice);
+        final long[] noteOns = new long[noteCount];
+        final long[] noteOffs = new long[noteCount];
+        boolean noteOffsInOrder = true;
+        for (int i = 0; i < noteCount; i++) {
+            final int note = timeline.getVoiceNote(voice, i);
+            final int start = timeline.getNoteStart(note);
+            final int duration = timeline.getNoteDuration(note);
+            noteOns[i] = toEvent(start, NOTE_ON, note);
+            noteOffs[i] = toEvent(start + duration, 0 == duration ? EMPTY_NOTE_OFF : NOTE_OFF, note);
+            noteOffsInOrder &= 0 == i || noteOffs[i - 1] <= noteOffs[i];
+        }
+        // Notes start in order, so only the ends of overlapping notes can be out of place.  The ends are sorted only
+        // then, and merged with the starts.
+        if (!noteOffsInOrder) {
+            Arrays.sort(noteOffs);
+        }
+
+        final long[] events = new long[noteCount * 2];
+        int on = 0;
+        int off = 0;
+        for (int i = 0; i < events.length; i++) {
+            final boolean noteOn = off == noteCount || on < noteCount && noteOns[on] < noteOffs[off];
+            events[i] = noteOn ? noteOns[on++] : noteOffs[off++];
+        }
+        return events;
+    }
+
+    /**
+     * Gives every tempo change and note of the timeline to the consumer in order.
+     *
+     * @param timeline the timeline to get the events of.
+     * @param consumer receives each event.
+     */
+    public static void forEachEvent(final Timeline timeline, final LongConsumer consumer) {
+        final long[][] streams = new long[timeline.getVoiceNames().size() + 1][];
+        streams[0] = getTempoEvents(timeline);
+        for (int voice = 0; voice < timeline.getVoiceNames().size(); voice++) {
+            streams[voice + 1] = getVoiceEvents(timeline, voice);
+        }
+        merge(streams, consumer);
+    }
+
+    /**
+     * Merges ordered streams of events into one ordered stream.
+     *
+     * @param streams the events of each stream, each in order.
+     * @param consumer receives each event.
+     */
+    public static void merge(final long[][] streams, final LongConsumer consumer) {
+        // A min heap of the streams that have events left, ordered by their next event.
+        final int[] heap = new int[streams.length];
+        final int[] positions = new int[streams.length];
+        int size = 0;
+        for (int stream = 0; stream < streams.length; stream++) {
+            if (streams[stream].length > 0) {
+                heap[size++] = stream;
+            }
+        }
+        for (int i = size / 2 - 1; i >= 0; i--) {
+            siftDown(heap, size, i, streams, positions);
+        }
+
+        while (size > 0) {
+            final int stream = heap[0];
+            consumer.accept(streams[stream][positions[stream]++]);
+            if (positions[stream] == streams[stream].length) {
+                heap[0] = heap[--size];
+            }
+            if (size > 0) {
+                siftDown(heap, size, 0, streams, positions);
+            }
+        }
+    }
+
+    private static void siftDown(final int[] heap, final int size, int i, final long[][] streams, final int[] positions) {
+        final int stream = heap[i];
+        final long event = streams[stream][positions[stream]];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            long childEvent = streams[heap[child]][positions[heap[child]]];
+            if (child + 1 < size) {
+                final long rightEvent = streams[heap[child + 1]][positions[heap[child + 1]]];
+                if (rightEvent < childEvent) {
+                    child++;
+                    childEvent = rightEvent;
+                }
+            }
+            if (event <= childEvent) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = stream;
+    }
+
+    static long toEvent(final int tick, final int kind, final int index) {
+        return ((long) tick << 32) | ((long) kind << 30) | index;
+    }
+}
@@ -0,0 +1,133 @@
+package player;
+
+import model.Measure;
+import model.PlayOrder;
+import model.Song;
+import model.Voice;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A song compiled a few measures at a time, for playing it while it is still being compiled.  Each voice follows its
+ * play order one measure at a time, so only the measures asked for are compiled, and their notes are handed on rather
+ * than kept.  Starting a stream doesn't read any measures, so the first notes are ready just as soon however long the
+ * song is.  Since the durations to come aren't known, every stream has 960 ticks per quarter note, which divides evenly
+ * by every tuplet and most written durations.  Any others are rounded down to the tick, as TimelineCompiler does for
+ * songs too fine for a midi file.
+ *
+ * Built by the TimelineCompiler.  Streams are not thread safe.
+ */
+public class TimelineStream {
+
+    /**
+     * Receives the notes and tempo changes of each measure as it is compiled.
+     */
+    public interface Listener {
+
+        void note(int voice, int tick, int duration, int pitch);
+
+        void tempo(int tick, int microsecondsPerQuarterNote);
+    }
+
+    private final TimelineCompiler compiler;
+
+    private final String title;
+
+    private final int ticksPerQuarterNote;
+
+    // The names of the voices, indexed by voice number.
+    private final List<String> voiceNames = new ArrayList<>();
+
+    // Where each voice is in its play order, indexed by voice number.
+    private final List<Cursor> cursors = new ArrayList<>();
+
+    TimelineStream(final TimelineCompiler compiler, final Song song) {
+        this.compiler = compiler;
+        this.title = song.getTitle();
+        this.ticksPerQuarterNote = TimelineCompiler.ROUNDED_TICKS_PER_QUARTER_NOTE;
+        for (Map.Entry<String, Voice> entry : song.getVoices().entrySet()) {
+            if (entry.getValue().getMeasures().isEmpty()) {
+                continue;
+            }
+            voiceNames.add(entry.getKey());
+            // Only the first voice sets the tempo, the same as a compiled timeline.
+            cursors.add(new Cursor(entry.getValue().getPlayOrder(), cursors.isEmpty()));
+        }
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public int getTicksPerQuarterNote() {
+        return ticksPerQuarterNote;
+    }
+
+    public List<String> getVoiceNames() {
+        return Collections.unmodifiableList(voiceNames);
+    }
+
+    /**
+     * Compiles every measure starting before the tick that hasn't been compiled yet, in every voice.
+     *
+     * @param tick the tick to compile up to.
+     * @param listener receives the notes and tempo changes of the measures compiled.
+     * @return the tick the next measure to compile starts on, which is at least the tick asked for, or Integer.MAX_VALUE
+     * once every measure has been compiled.
+     */
+    public int compileUntil(final int tick, final Listener listener) {
+        int next = Integer.MAX_VALUE;
+        for (int voice = 0; voice < cursors.size(); voice++) {
+            final Cursor cursor = cursors.get(voice);
+            while (PlayOrder.END != cursor.position && cursor.tick < tick) {
+                cursor.compile(voice, listener);
+            }
+            if (PlayOrder.END != cursor.position) {
+                next = Math.min(next, cursor.tick);
+            }
+        }
+        return next;
+    }
+
+    // The measure a voice plays next and the tick it starts on.
+    private class Cursor {
+
+        private final PlayOrder playOrder;
+        private final PitchTable pitches;
+        private final boolean setTempo;
+
+        // The position of the next measure in the play order, or PlayOrder.END once the voice is done.
+        private int position = 0;
+        // The pass is 1 the first time through a section and will match with the alternate ending count when reached.
+        private int pass = 1;
+        private int tick = 0;
+
+        private Cursor(final PlayOrder playOrder, final boolean setTempo) {
+            this.playOrder = playOrder;
+            this.pitches = PitchTable.forKey(playOrder.getMeasure(0).getKey().getKey());
+            this.setTempo = setTempo;
+        }
+
+        // Gives the next measure's notes to the listener and moves on to the measure after it.
+        private void compile(final int voice, final Listener listener) {
+            final Measure measure = playOrder.getMeasure(position);
+            if (setTempo && null != measure.getTempo()) {
+                listener.tempo(tick, TimelineCompiler.getMicrosecondsPerQuarterNote(measure.getTempo(), measure.getLastNoteLength()));
+            }
+            final TimelineCompiler.MeasureNotes notes = compiler.compileMeasure(measure, pitches, ticksPerQuarterNote);
+            for (int i = 0; i < notes.count; i++) {
+                listener.note(voice, tick + notes.starts[i], notes.durations[i], notes.pitches[i]);
+            }
+            tick += compiler.getDurationTick(measure, ticksPerQuarterNote);
+
+            final int nextPosition = playOrder.getNextPosition(position, pass);
+            if (PlayOrder.END != nextPosition) {
+                pass = playOrder.getNextPass(position, pass);
+            }
+            position = nextPosition;
+        }
+    }
+}
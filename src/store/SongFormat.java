@@ -0,0 +1,73 @@
+package store;
+
+import model.Meter;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static parser.AbcHelper.STANDARD_COMPOSER;
+import static parser.AbcHelper.STANDARD_METER;
+import static parser.AbcHelper.STANDARD_VOICE;
+
+/**
+ * The layout of a song file, shared by SongWriter and SongReader.
+ *
+ * A file starts with MAGIC as four bytes and VERSION as a varint, followed by the song: its index, title, and composer,
+ * then each voice with its name, its measures, and the empty measure linked after the last one, if there is one.
+ *
+ * Measures are written as what changed since the measure before, so a measure that only holds notes usually takes
+ * two bytes besides its body.
+ *
+ * Numbers are unsigned varints, seven bits to a byte with the high bit set on every byte but the last.  Signed numbers
+ * are zig-zag encoded first, and numbers that can be missing are written one higher, leaving 0 for null.  Enums are
+ * written as their ordinal plus one, so reordering an enum needs a new VERSION.  Fractions are a signed numerator and
+ * a denominator, with a denominator of 0 standing for Fraction.NONE.
+ *
+ * Strings, meters, contexts, entities, and measure bodies repeat throughout a song, so each is written in full only
+ * the first time it is used.  Every use starts with a reference: NULL, NEW followed by the value, which is then given
+ * the next id for its kind, or FIRST_ID plus the id of a value written earlier.  Chords and tuplets write the entities
+ * they hold before themselves, so those get their ids first.  The defaults the parser fills in are given the first ids
+ * without being written, which keeps short tunes short.
+ */
+class SongFormat {
+
+    // Identifies a song file.
+    static final int MAGIC = 0x41424353; // "ABCS"
+
+    // The version of the layout.  Readers refuse files written with any other.
+    static final int VERSION = 1;
+
+    // The references to a repeated value.
+    static final int NULL = 0;
+    static final int NEW = 1;
+    static final int FIRST_ID = 2;
+
+    // The values every file starts with, in id order.  Changing them needs a new VERSION.
+    static final List<String> STRINGS = Arrays.asList(STANDARD_COMPOSER, STANDARD_VOICE);
+    static final List<Meter> METERS = Collections.singletonList(STANDARD_METER);
+
+    // A measure starts with its end line and flags for everything that isn't the same as in the measure before, or
+    // that the measure sets itself rather than inheriting through its context.  The values flagged follow in the order
+    // of the flags.
+    static final int END_LINE_BITS = 3;
+    static final int INDEX = 1;
+    static final int START_LINE = 1 << 1;
+    static final int CONTEXT = 1 << 2;
+    static final int ALTERNATE_ENDING = 1 << 3;
+    static final int VOICE_NAME = 1 << 4;
+    static final int NOTE_LENGTH = 1 << 5;
+    static final int METER = 1 << 6;
+    static final int TEMPO = 1 << 7;
+    static final int KEY = 1 << 8;
+
+    // An entity starts with its type and whether a multiplier other than one follows.  A note packs its value,
+    // accidental, and octave into one number after that.
+    static final int ENTITY_TYPE_BITS = 3;
+    static final int MULTIPLIER = 1 << ENTITY_TYPE_BITS;
+    static final int NOTE_BITS = 3;
+    static final int ACCIDENTAL_BITS = 3;
+
+    private SongFormat() {
+    }
+}
@@ -0,0 +1,371 @@
+package store;
+
+import model.Fraction;
+import model.Interner;
+import model.Measure;
+import model.MeasureContext;
+import model.MeasureKey;
+import model.Meter;
+import model.Song;
+import model.Voice;
+import model.entities.AlternateEnding;
+import model.entities.BarLine;
+import model.entities.BrokenRhythm;
+import model.entities.Chord;
+import model.entities.MeasureEntity;
+import model.entities.Note;
+import model.entities.Rest;
+import model.entities.Tuplet;
+import model.enums.Accidental;
+import model.enums.BarLineEnum;
+import model.enums.Key;
+import model.enums.MeasureEntityEnum;
+import model.enums.NoteEnum;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static store.SongFormat.*;
+
+/**
+ * Loads songs written by SongWriter.  The song is built straight from the file without tokenizing or checking any abc,
+ * and each value written once in the file is built once, so reloading a song is much faster than parsing it again.
+ *
+ * A single reader can be used by any number of threads at once.
+ */
+public class SongReader {
+
+    // Shares one instance between the entities and measure bodies that are the same.
+    private final Interner interner;
+
+    public SongReader() {
+        this(Interner.NONE);
+    }
+
+    /**
+     * @param interner shares one instance between the entities and measure bodies that are the same, in this and every
+     *                 other song read or parsed with it.
+     */
+    public SongReader(final Interner interner) {
+        this.interner = interner;
+    }
+
+    /**
+     * @param bytes the song file's contents.
+     * @return the song.
+     * @throws IOException if the contents aren't a song file this reader understands, or are cut short.
+     */
+    public Song read(final byte[] bytes) throws IOException {
+        return new Decoder(bytes).readSong();
+    }
+
+    /**
+     * Reads a song from the rest of the stream, leaving the stream open.
+     */
+    public Song read(final InputStream in) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final byte[] chunk = new byte[8192];
+        for (int read = in.read(chunk); -1 != read; read = in.read(chunk)) {
+            bytes.write(chunk, 0, read);
+        }
+        return read(bytes.toByteArray());
+    }
+
+    public Song read(final Path file) throws IOException {
+        return read(Files.readAllBytes(file));
+    }
+
+    /**
+     * The position in the file and the values read in full so far, by id, for a single song.
+     */
+    private class Decoder {
+
+        private final byte[] bytes;
+        private int position;
+
+        private final List<String> strings = new ArrayList<>();
+        private final List<Meter> meters = new ArrayList<>();
+        private final List<MeasureContext> contexts = new ArrayList<>();
+        private final List<MeasureEntity> entities = new ArrayList<>();
+        private final List<List<MeasureEntity>> bodies = new ArrayList<>();
+
+        private Decoder(final byte[] bytes) {
+            this.bytes = bytes;
+            strings.addAll(STRINGS);
+            for (Meter meter : METERS) {
+                meters.add(interner.intern(meter));
+            }
+        }
+
+        private Song readSong() throws IOException {
+            final int magic = readByte() << 24 | readByte() << 16 | readByte() << 8 | readByte();
+            if (MAGIC != magic) {
+                throw new IOException("Not a song file.");
+            }
+            final int version = readInt();
+            if (VERSION != version) {
+                throw new IOException(String.format("Unsupported song file version %d.", version));
+            }
+
+            final Song.Builder song = new Song.Builder()
+                    .withIndex(readNullableInt())
+                    .withTitle(readString())
+                    .withComposer(readString());
+            final int voiceCount = readInt();
+            for (int i = 0; i < voiceCount; i++) {
+                song.withVoice(readString(), readVoice());
+            }
+            if (position != bytes.length) {
+                throw new IOException("Unexpected data after the song.");
+            }
+            return song.build();
+        }
+
+        private Voice readVoice() throws IOException {
+            final Voice.Builder voice = new Voice.Builder();
+            final int measureCount = readInt();
+            Measure.Builder previous = null;
+            for (int i = 0; i < measureCount; i++) {
+                previous = readMeasure(previous);
+                voice.addMeasure(previous);
+            }
+            if (readBoolean()) {
+                voice.withNextMeasure(readMeasure(previous));
+            }
+            return voice.build();
+        }
+
+        // Reads what changed since the previous measure in the voice, taking everything else from it.
+        private Measure.Builder readMeasure(final Measure.Builder previous) throws IOException {
+            final int header = readInt();
+            final int flags = header >>> END_LINE_BITS;
+            final Measure.Builder measure = new Measure.Builder()
+                    .withEndLine(toEnum(BarLineEnum.values(), header & (1 << END_LINE_BITS) - 1))
+                    .withInterner(interner);
+            if (0 != (flags & INDEX)) {
+                measure.withIndex(readNullableInt());
+            } else if (null != previous && null != previous.getIndex()) {
+                measure.withIndex(previous.getIndex() + 1);
+            }
+            measure.withStartLine(0 != (flags & START_LINE) ? readEnum(BarLineEnum.values()) : null == previous ? null : previous.getEndLine())
+                    .withContext(0 != (flags & CONTEXT) ? readContext() : null == previous ? null : previous.getContext());
+            if (0 != (flags & ALTERNATE_ENDING)) {
+                measure.withAlternateEnding(readEntity(AlternateEnding.class));
+            }
+            measure.withVoiceName(0 != (flags & VOICE_NAME) ? readString() : null == previous ? null : previous.getVoiceName());
+            if (0 != (flags & NOTE_LENGTH)) {
+                measure.withNoteLength(readFraction());
+            }
+            if (0 != (flags & METER)) {
+                measure.withMeter(readMeter());
+            }
+            if (0 != (flags & TEMPO)) {
+                measure.withTempo(unZigZag(readVarint()));
+            }
+            if (0 != (flags & KEY)) {
+                measure.withKey(readKey());
+            }
+            for (MeasureEntity entity : readBody()) {
+                measure.addEntity(entity);
+            }
+            return measure;
+        }
+
+        private List<MeasureEntity> readBody() throws IOException {
+            final int reference = readInt();
+            if (NULL == reference) {
+                throw new IOException("Missing measure body.");
+            }
+            if (NEW != reference) {
+                return get(bodies, reference);
+            }
+            final int count = readInt();
+            // A corrupt count can't ask for more room than the file could fill.
+            final List<MeasureEntity> body = new ArrayList<>(Math.min(count, bytes.length));
+            for (int i = 0; i < count; i++) {
+                body.add(readEntity(MeasureEntity.class));
+            }
+            bodies.add(body);
+            return body;
+        }
+
+        private <T extends MeasureEntity> T readEntity(final Class<T> type) throws IOException {
+            final int reference = readInt();
+            final MeasureEntity entity;
+            if (NEW != reference) {
+                entity = get(entities, reference);
+            } else {
+                final int header = readInt();
+                final MeasureEntityEnum entityType = toEnum(MeasureEntityEnum.values(), (header & MULTIPLIER - 1) + 1);
+                final long multiplier = 0 != (header & MULTIPLIER) ? readFraction() : Fraction.ONE;
+                final MeasureEntity built;
+                switch (entityType) {
+                    case NOTE:
+                        final int note = readInt();
+                        built = new Note.Builder()
+                                .withNoteEnum(toEnum(NoteEnum.values(), note & (1 << NOTE_BITS) - 1))
+                                .withAccidental(toEnum(Accidental.values(), note >>> NOTE_BITS & (1 << ACCIDENTAL_BITS) - 1))
+                                .withOctave(unZigZag(note >>> NOTE_BITS + ACCIDENTAL_BITS))
+                                .withMultiplier(multiplier)
+                                .build();
+                        break;
+                    case REST:
+                        built = new Rest.Builder().withMultiplier(multiplier).build();
+                        break;
+                    case CHORD:
+                        final List<Note> notes = new ArrayList<>();
+                        for (int i = readInt(); i > 0; i--) {
+                            notes.add(readEntity(Note.class));
+                        }
+                        built = new Chord.Builder().withNotes(notes).withMultiplier(multiplier).build();
+                        break;
+                    case TUPLET:
+                        final List<MeasureEntity> tupletEntities = new ArrayList<>();
+                        for (int i = readInt(); i > 0; i--) {
+                            tupletEntities.add(readEntity(MeasureEntity.class));
+                        }
+                        built = new Tuplet.Builder().withEntities(tupletEntities).withMultiplier(multiplier).build();
+                        break;
+                    case BAR:
+                        built = new BarLine.Builder().withType(readEnum(BarLineEnum.values())).withMultiplier(multiplier).build();
+                        break;
+                    case ALTERNATE_ENDING:
+                        built = new AlternateEnding.Builder().withEndingIndex(readNullableInt()).withMultiplier(multiplier).build();
+                        break;
+                    case BROKEN_RHYTHM:
+                        built = new BrokenRhythm.Builder()
+                                .withFirstNoteMultiplier(readFraction())
+                                .withSecondNoteMultiplier(readFraction())
+                                .withMultiplier(multiplier)
+                                .build();
+                        break;
+                    default:
+                        throw new IOException("Unknown entity type " + entityType + ".");
+                }
+                entity = interner.intern(built);
+                entities.add(entity);
+            }
+            if (null == entity || !type.isInstance(entity)) {
+                throw new IOException(String.format("Expected a %s.", type.getSimpleName()));
+            }
+            return type.cast(entity);
+        }
+
+        private MeasureContext readContext() throws IOException {
+            final int reference = readInt();
+            if (NEW != reference) {
+                return get(contexts, reference);
+            }
+            final MeasureContext context = new MeasureContext(readNullableInt(), readKey(), readMeter(), readFraction());
+            contexts.add(context);
+            return context;
+        }
+
+        private Meter readMeter() throws IOException {
+            final int reference = readInt();
+            if (NEW != reference) {
+                return get(meters, reference);
+            }
+            final Meter meter = interner.intern(new Meter(readNullableInt(), readNullableInt()));
+            meters.add(meter);
+            return meter;
+        }
+
+        private String readString() throws IOException {
+            final int reference = readInt();
+            if (NEW != reference) {
+                return get(strings, reference);
+            }
+            final int length = readInt();
+            if (length > bytes.length - position) {
+                throw new EOFException("Song file is cut short.");
+            }
+            final String value = new String(bytes, position, length, StandardCharsets.UTF_8);
+            position += length;
+            strings.add(value);
+            return value;
+        }
+
+        // Looks up a value read earlier, or null for NULL.
+        private <T> T get(final List<T> values, final int reference) throws IOException {
+            if (NULL == reference) {
+                return null;
+            }
+            if (reference - FIRST_ID >= values.size()) {
+                throw new IOException(String.format("Reference %d is to a value not read yet.", reference));
+            }
+            return values.get(reference - FIRST_ID);
+        }
+
+        private MeasureKey readKey() throws IOException {
+            final Key key = readEnum(Key.values());
+            return null == key ? null : MeasureKey.of(key);
+        }
+
+        private <E extends Enum<E>> E readEnum(final E[] values) throws IOException {
+            return toEnum(values, readInt());
+        }
+
+        // The enum written as the code given, its ordinal plus one, or null for NULL.
+        private <E extends Enum<E>> E toEnum(final E[] values, final int value) throws IOException {
+            if (value > values.length) {
+                throw new IOException(String.format("Unknown %s %d.", values.getClass().getComponentType().getSimpleName(), value - 1));
+            }
+            return NULL == value ? null : values[value - 1];
+        }
+
+        private Integer readNullableInt() throws IOException {
+            final long value = readVarint();
+            return 0 == value ? null : unZigZag(value - 1);
+        }
+
+        private long readFraction() throws IOException {
+            final int numerator = unZigZag(readVarint());
+            final int denominator = readInt();
+            return 0 == denominator ? Fraction.NONE : Fraction.of(numerator, denominator);
+        }
+
+        private boolean readBoolean() throws IOException {
+            return 0 != readByte();
+        }
+
+        // Reads a varint that must fit in a non negative int, such as a count, reference, or enum.
+        private int readInt() throws IOException {
+            final long value = readVarint();
+            if (value > Integer.MAX_VALUE) {
+                throw new IOException(String.format("%d is out of range.", value));
+            }
+            return (int) value;
+        }
+
+        private long readVarint() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                final int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if (0 == (b & 0x80)) {
+                    return value;
+                }
+            }
+            throw new IOException("Varint is too long.");
+        }
+
+        private int readByte() throws IOException {
+            if (position == bytes.length) {
+                throw new EOFException("Song file is cut short.");
+            }
+            return bytes[position++] & 0xFF;
+        }
+
+        private int unZigZag(final long value) {
+            return (int) (value >>> 1) ^ -(int) (value & 1);
+        }
+    }
+}
@@ -0,0 +1,343 @@
+package store;
+
+import model.Fraction;
+import model.Measure;
+import model.MeasureContext;
+import model.MeasureKey;
+import model.Meter;
+import model.Song;
+import model.Voice;
+import model.entities.AlternateEnding;
+import model.entities.BarLine;
+import model.entities.BrokenRhythm;
+import model.entities.Chord;
+import model.entities.MeasureEntity;
+import model.entities.Note;
+import model.entities.Rest;
+import model.entities.Tuplet;
+import model.enums.MeasureEntityEnum;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static store.SongFormat.*;
+
+/**
+ * Writes songs in the binary layout described by SongFormat, so they can be loaded again by SongReader without parsing
+ * the abc file.  Repeated strings, meters, contexts, entities, and measure bodies are only written once, so a song file
+ * is usually a fraction of the size of the abc file it came from.
+ *
+ * A single writer can be used by any number of threads at once.
+ */
+public class SongWriter {
+
+    /**
+     * @param song the song to write.
+     * @return the song file's contents.
+     */
+    public byte[] toBytes(final Song song) {
+        final Encoder encoder = new Encoder();
+        encoder.writeSong(song);
+        return encoder.toBytes();
+    }
+
+    /**
+     * Writes the song to the stream, leaving the stream open.
+     */
+    public void write(final Song song, final OutputStream out) throws IOException {
+        final Encoder encoder = new Encoder();
+        encoder.writeSong(song);
+        out.write(encoder.buffer, 0, encoder.size);
+    }
+
+    /**
+     * Writes the song to the file, through a temporary file so that a reader never sees a partly written song.
+     */
+    public void write(final Song song, final Path file) throws IOException {
+        final Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(temp, toBytes(song));
+        Files.move(temp, file, REPLACE_EXISTING, ATOMIC_MOVE);
+    }
+
+    /**
+     * The bytes written so far and the ids given to the values written in full, for a single song.
+     */
+    private static class Encoder {
+
+        private byte[] buffer = new byte[4096];
+        private int size;
+
+        private final Map<String, Integer> strings = new HashMap<>();
+        private final Map<Meter, Integer> meters = new HashMap<>();
+        private final Map<MeasureContext, Integer> contexts = new HashMap<>();
+        private final Map<MeasureEntity, Integer> entities = new HashMap<>();
+        private final Map<List<MeasureEntity>, Integer> bodies = new HashMap<>();
+
+        private Encoder() {
+            for (String value : STRINGS) {
+                strings.put(value, strings.size());
+            }
+            for (Meter meter : METERS) {
+                meters.put(meter, meters.size());
+            }
+        }
+
+        private void writeSong(final Song song) {
+            writeByte(MAGIC >>> 24);
+            writeByte(MAGIC >>> 16);
+            writeByte(MAGIC >>> 8);
+            writeByte(MAGIC);
+            writeVarint(VERSION);
+
+            writeNullableInt(song.getIndex());
+            writeString(song.getTitle());
+            writeString(song.getComposer());
+            writeVarint(song.getVoices().size());
+            for (Map.Entry<String, Voice> voice : song.getVoices().entrySet()) {
+                writeString(voice.getKey());
+                writeVoice(voice.getValue());
+            }
+        }
+
+        private void writeVoice(final Voice voice) {
+            final List<Measure> measures = voice.getMeasures();
+            writeVarint(measures.size());
+            Measure previous = null;
+            for (Measure measure : measures) {
+                writeMeasure(measure, previous);
+                previous = measure;
+            }
+            // The empty measure opened by a closing bar line, which repeats at the end of the voice return to.
+            final Measure next = null == previous ? null : previous.getNextMeasure();
+            writeBoolean(null != next);
+            if (null != next) {
+                writeMeasure(next, previous);
+            }
+        }
+
+        // Writes what changed since the previous measure in the voice, or everything for the first.
+        private void writeMeasure(final Measure measure, final Measure previous) {
+            final Integer expectedIndex = null == previous || null == previous.getIndex() ? null : previous.getIndex() + 1;
+            int flags = 0;
+            flags |= !Objects.equals(measure.getIndex(), expectedIndex) ? INDEX : 0;
+            flags |= measure.getStartLine() != (null == previous ? null : previous.getEndLine()) ? START_LINE : 0;
+            flags |= !Objects.equals(measure.getContext(), null == previous ? null : previous.getContext()) ? CONTEXT : 0;
+            flags |= null != measure.getAlternateEnding() ? ALTERNATE_ENDING : 0;
+            flags |= !Objects.equals(measure.getVoiceName(), null == previous ? null : previous.getVoiceName()) ? VOICE_NAME : 0;
+            flags |= Fraction.NONE != measure.getNoteLength() ? NOTE_LENGTH : 0;
+            flags |= null != measure.getMeter() ? METER : 0;
+            flags |= null != measure.getTempo() ? TEMPO : 0;
+            flags |= null != measure.getKey() ? KEY : 0;
+            writeVarint(toCode(measure.getEndLine()) | flags << END_LINE_BITS);
+            if (0 != (flags & INDEX)) {
+                writeNullableInt(measure.getIndex());
+            }
+            if (0 != (flags & START_LINE)) {
+                writeEnum(measure.getStartLine());
+            }
+            if (0 != (flags & CONTEXT)) {
+                writeContext(measure.getContext());
+            }
+            if (0 != (flags & ALTERNATE_ENDING)) {
+                writeEntity(measure.getAlternateEnding());
+            }
+            if (0 != (flags & VOICE_NAME)) {
+                writeString(measure.getVoiceName());
+            }
+            if (0 != (flags & NOTE_LENGTH)) {
+                writeFraction(measure.getNoteLength());
+            }
+            if (0 != (flags & METER)) {
+                writeMeter(measure.getMeter());
+            }
+            if (0 != (flags & TEMPO)) {
+                writeVarint(zigZag(measure.getTempo()));
+            }
+            if (0 != (flags & KEY)) {
+                writeKey(measure.getKey());
+            }
+            writeBody(measure.getEntities());
+        }
+
+        private void writeBody(final List<MeasureEntity> body) {
+            // Copied so that views of measures can be looked up alongside ordinary ones.
+            final List<MeasureEntity> key = new ArrayList<>(body);
+            if (writeReference(bodies, key)) {
+                writeVarint(key.size());
+                for (MeasureEntity entity : key) {
+                    writeEntity(entity);
+                }
+                bodies.put(key, bodies.size());
+            }
+        }
+
+        private void writeEntity(final MeasureEntity entity) {
+            if (!writeReference(entities, entity)) {
+                return;
+            }
+            final boolean multiplied = Fraction.ONE != entity.getMultiplier();
+            writeVarint(getType(entity).ordinal() | (multiplied ? MULTIPLIER : 0));
+            if (multiplied) {
+                writeFraction(entity.getMultiplier());
+            }
+            if (entity instanceof Note) {
+                final Note note = (Note) entity;
+                writeVarint(toCode(note.getNoteEnum()) | toCode(note.getAccidentalOverride()) << NOTE_BITS
+                        | zigZag(note.getOctave()) << NOTE_BITS + ACCIDENTAL_BITS);
+            } else if (entity instanceof Chord) {
+                final List<Note> notes = ((Chord) entity).getNotes();
+                writeVarint(notes.size());
+                for (Note note : notes) {
+                    writeEntity(note);
+                }
+            } else if (entity instanceof Tuplet) {
+                final List<MeasureEntity> tupletEntities = ((Tuplet) entity).getEntities();
+                writeVarint(tupletEntities.size());
+                for (MeasureEntity tupletEntity : tupletEntities) {
+                    writeEntity(tupletEntity);
+                }
+            } else if (entity instanceof BarLine) {
+                writeEnum(((BarLine) entity).getType());
+            } else if (entity instanceof AlternateEnding) {
+                writeNullableInt(((AlternateEnding) entity).getEndingIndex());
+            } else if (entity instanceof BrokenRhythm) {
+                writeFraction(((BrokenRhythm) entity).getFirstNoteMultiplier());
+                writeFraction(((BrokenRhythm) entity).getSecondNoteMultiplier());
+            }
+            entities.put(entity, entities.size());
+        }
+
+        private static MeasureEntityEnum getType(final MeasureEntity entity) {
+            if (entity instanceof Note) {
+                return MeasureEntityEnum.NOTE;
+            } else if (entity instanceof Rest) {
+                return MeasureEntityEnum.REST;
+            } else if (entity instanceof Chord) {
+                return MeasureEntityEnum.CHORD;
+            } else if (entity instanceof Tuplet) {
+                return MeasureEntityEnum.TUPLET;
+            } else if (entity instanceof BarLine) {
+                return MeasureEntityEnum.BAR;
+            } else if (entity instanceof AlternateEnding) {
+                return MeasureEntityEnum.ALTERNATE_ENDING;
+            } else if (entity instanceof BrokenRhythm) {
+                return MeasureEntityEnum.BROKEN_RHYTHM;
+            }
+            throw new IllegalArgumentException("Unable to write " + entity.getClass().getName());
+        }
+
+        private void writeContext(final MeasureContext context) {
+            if (writeReference(contexts, context)) {
+                writeNullableInt(context.getTempo());
+                writeKey(context.getKey());
+                writeMeter(context.getMeter());
+                writeFraction(context.getNoteLength());
+                contexts.put(context, contexts.size());
+            }
+        }
+
+        private void writeMeter(final Meter meter) {
+            if (writeReference(meters, meter)) {
+                writeNullableInt(meter.getBeatsPerMeasure());
+                writeNullableInt(meter.getDuration());
+                meters.put(meter, meters.size());
+            }
+        }
+
+        private void writeString(final String value) {
+            if (writeReference(strings, value)) {
+                final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                writeVarint(bytes.length);
+                ensureCapacity(bytes.length);
+                System.arraycopy(bytes, 0, buffer, size, bytes.length);
+                size += bytes.length;
+                strings.put(value, strings.size());
+            }
+        }
+
+        /**
+         * Writes the reference to the value.
+         *
+         * @return true if the value hasn't been written yet, in which case the caller writes it in full and gives it the
+         *         next id once done.
+         */
+        private <T> boolean writeReference(final Map<T, Integer> ids, final T value) {
+            if (null == value) {
+                writeVarint(NULL);
+                return false;
+            }
+            final Integer id = ids.get(value);
+            if (null != id) {
+                writeVarint(FIRST_ID + id);
+                return false;
+            }
+            writeVarint(NEW);
+            return true;
+        }
+
+        private void writeKey(final MeasureKey key) {
+            writeEnum(null == key ? null : key.getKey());
+        }
+
+        private void writeEnum(final Enum<?> value) {
+            writeVarint(toCode(value));
+        }
+
+        private void writeNullableInt(final Integer value) {
+            writeVarint(null == value ? 0 : zigZag(value) + 1);
+        }
+
+        private void writeFraction(final long fraction) {
+            writeVarint(zigZag(Fraction.getNumerator(fraction)));
+            writeVarint(Fraction.getDenominator(fraction));
+        }
+
+        private void writeBoolean(final boolean value) {
+            writeByte(value ? 1 : 0);
+        }
+
+        private void writeVarint(long value) {
+            ensureCapacity(10);
+            while (0 != (value & ~0x7FL)) {
+                buffer[size++] = (byte) (value & 0x7F | 0x80);
+                value >>>= 7;
+            }
+            buffer[size++] = (byte) value;
+        }
+
+        private void writeByte(final int value) {
+            ensureCapacity(1);
+            buffer[size++] = (byte) value;
+        }
+
+        private void ensureCapacity(final int bytes) {
+            if (size + bytes > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + bytes));
+            }
+        }
+
+        private byte[] toBytes() {
+            return Arrays.copyOf(buffer, size);
+        }
+
+        private static int toCode(final Enum<?> value) {
+            return null == value ? NULL : value.ordinal() + 1;
+        }
+
+        // Moves the sign to the lowest bit, so small negative numbers stay short.
+        private static long zigZag(final int value) {
+            return (long) (value << 1 ^ value >> 31) & 0xFFFFFFFFL;
+        }
+    }
+}
@@ -1,27 +1,89 @@
 package test;
 
+import model.CompactVoice;
+import model.Fraction;
+import model.Interner;
 import model.Measure;
+import model.MeasureContext;
+import model.MeasureKey;
 import model.Meter;
+import model.PlayOrder;
 import model.Song;
 import model.Voice;
 import model.entities.Chord;
 import model.entities.MeasureEntity;
 import model.entities.Note;
+import model.entities.Tuplet;
 import model.enums.Accidental;
+import model.enums.BarLineEnum;
 import model.enums.Key;
 import model.enums.NoteEnum;
 import org.junit.Test;
 import parser.AbcHelper;
+import parser.AbcListener;
 import parser.AbcParser;
+import parser.MappedSongbook;
+import parser.ParsedTune;
+import parser.SongbookIndex;
+import parser.SongbookParser;
+import parser.SongBuilder;
+import parser.TuneEntry;
+import parser.TuneHeader;
+import parser.enums.AbcHeader;
+import player.AudioRenderer;
+import player.MidiHelper;
 import player.MidiPlayer;
+import player.MidiRenderer;
+import player.PitchTable;
+import player.SequencerPool;
+import player.SmfEncoder;
+import player.StreamingPlayer;
+import player.Timeline;
+import player.TimelineCompiler;
+import player.TimelineEvents;
+import store.SongReader;
+import store.SongWriter;
 
 import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.MidiSystem;
 import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.Sequencer;
+import javax.sound.midi.ShortMessage;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
 
 import static java.util.stream.Collectors.toList;
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
 import static junit.framework.Assert.assertTrue;
 
 /**
@@ -250,6 +312,927 @@ public class AbcParserTest {
         player.play(song);
     }
 
+    @Test
+    public void testLongVoice() throws IOException {
+        // 100k measures, with a tempo change half way through.
+        final StringBuilder text = new StringBuilder("X:1\nT:Long\nK:C\n");
+        for (int line = 0; line < 10000; line++) {
+            if (5000 == line) {
+                text.append("Q:150\n");
+            }
+            text.append("C D E F|C D E F|C D E F|C D E F|C D E F|C D E F|C D E F|C D E F|C D E F|C D E F|\n");
+        }
+        final SongBuilder builder = new SongBuilder(false);
+        new AbcParser(false).parse(new BufferedReader(new StringReader(text.toString())), "long", builder);
+        final List<Measure> measures = builder.getSong().getVoices().get(AbcHelper.STANDARD_VOICE).getMeasures();
+        assertEquals(measures.size(), 100000);
+
+        // Settings are shared until they change, and can be looked up from anywhere without walking the voice.
+        final Measure first = measures.get(0);
+        final Measure last = measures.get(measures.size() - 1);
+        assertTrue(first.getContext() == measures.get(49999).getContext());
+        assertTrue(first.getContext() != measures.get(50000).getContext());
+        assertTrue(measures.get(50000).getContext() == last.getContext());
+        assertEquals(measures.get(50000).getTempo().intValue(), 150);
+        assertTrue(null == last.getTempo());
+        assertEquals(last.getLastTempo().intValue(), 150);
+        assertEquals(last.getLastKey().getKey(), Key.C_MAJOR);
+        assertEquals(last.getLastMeter(), AbcHelper.STANDARD_METER);
+        assertEquals(last.getNextMeasure().getLastNoteDuration(), AbcHelper.STANDARD_NOTE_DURATION);
+        assertTrue(last.getSectionStart() == first);
+    }
+
+    @Test
+    public void testPlayOrder() throws IOException {
+        final Song song = new AbcParser(false).parse("src/test/resource/paddy.abc");
+        final PlayOrder playOrder = song.getVoices().values().stream().findFirst().get().getPlayOrder();
+        // The 26 measures plus the empty one after the closing repeat.
+        assertEquals(playOrder.size(), 27);
+
+        final List<Integer> played = new ArrayList<>();
+        int position = 0;
+        int pass = 1;
+        while (PlayOrder.END != position) {
+            played.add(playOrder.getMeasure(position).getIndex());
+            final int nextPosition = playOrder.getNextPosition(position, pass);
+            pass = PlayOrder.END != nextPosition ? playOrder.getNextPass(position, pass) : pass;
+            position = nextPosition;
+        }
+        // Each section repeats, taking the first ending and then the second.
+        assertEquals(played, Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8, 1, 2, 3, 4, 5, 6, 7, 9,
+                10, 11, 12, 13, 14, 15, 16, 17, 10, 11, 12, 13, 14, 15, 16, 18,
+                19, 20, 21, 22, 23, 24, 25, 26, 19, 20, 21, 22, 23, 24, 25, 26, 27));
+    }
+
+    @Test
+    public void testCompactVoice() throws IOException {
+        for (String name : Arrays.asList("sample4", "paddy", "invention", "fur_elise")) {
+            final Song song = new AbcParser(false).parse("src/test/resource/" + name + ".abc");
+            final Timeline expected = new TimelineCompiler(false).compile(song);
+            assertSameTimeline(expected, new TimelineCompiler(false).compile(CompactVoice.compact(song)));
+        }
+
+        // The measures and entities read the same as the ones parsed.
+        final Voice voice = new CompactVoice(new AbcParser(false).parse("src/test/resource/sample4.abc").getVoices().get(AbcHelper.STANDARD_VOICE));
+        assertEquals(voice.getMeasures().size(), 6);
+        final Measure measure = voice.getMeasures().get(3);
+        assertEquals(measure.getIndex(), (Integer) 4);
+        assertEquals(measure.getLastMeter(), new Meter(4, 4));
+        assertEquals(measure.getPreviousMeasure(), voice.getMeasures().get(2));
+        assertEquals(measure.getEntities().size(), 2);
+        final Tuplet tuplet = (Tuplet) measure.getEntities().get(1);
+        assertEquals(tuplet.getEntities().size(), 3);
+        assertEquals(((Note) tuplet.getEntities().get(0)).getNoteEnum(), NoteEnum.F);
+        assertEquals(tuplet.getEntities().get(0).getDurationMultiplier(), 1.0);
+        // The 6 measures plus the empty one after the closing bar line.
+        assertEquals(voice.getPlayOrder().size(), 7);
+        assertTrue(voice.getPlayOrder() == voice.getPlayOrder());
+        try {
+            measure.getEntities().remove(0);
+            assertTrue(false);
+        } catch (UnsupportedOperationException e) {
+            assertEquals(measure.getLastTempo(), (Integer) 120);
+        }
+    }
+
+    @Test
+    public void testImmutableSong() throws Exception {
+        final SongBuilder builder = new SongBuilder(false);
+        new AbcParser(false).parse(new BufferedReader(new StringReader("X:1\nT:Shared\nK:C\n[CE]>D (3CDE|\n")), "shared", builder);
+        final Song song = builder.getSong();
+        final Voice voice = song.getVoices().get(AbcHelper.STANDARD_VOICE);
+        final Measure measure = voice.getMeasures().get(0);
+        final Chord chord = (Chord) measure.getEntities().get(0);
+        final Tuplet tuplet = (Tuplet) measure.getEntities().get(3);
+
+        // Broken rhythms are applied to copies of the notes and chords around them.
+        assertEquals(chord.getMultiplier(), Fraction.of(3, 2));
+        assertEquals(chord.getNotes().get(0).getMultiplier(), Fraction.ONE);
+        assertEquals(measure.getEntities().get(2).getMultiplier(), Fraction.of(1, 2));
+
+        // Nothing can be added to or taken from the song.
+        final List<Runnable> changes = Arrays.asList(
+                () -> song.getVoices().clear(),
+                () -> voice.getMeasures().clear(),
+                () -> measure.getEntities().clear(),
+                () -> chord.getNotes().clear(),
+                () -> tuplet.getEntities().clear());
+        for (Runnable change : changes) {
+            try {
+                change.run();
+                assertTrue(false);
+            } catch (UnsupportedOperationException e) {
+                assertEquals(measure.getEntities().size(), 4);
+            }
+        }
+
+        // So one song can be compiled by many threads at once, each getting the same timeline.
+        final Timeline expected = new TimelineCompiler(false).compile(song);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<Timeline>> compiles = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                compiles.add(executor.submit(() -> new TimelineCompiler(false).compile(song)));
+            }
+            for (Future<Timeline> compile : compiles) {
+                assertSameTimeline(expected, compile.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        // A song isn't handed out until it is finished.
+        try {
+            new SongBuilder(false).getSong();
+            assertTrue(false);
+        } catch (IllegalStateException e) {
+            assertEquals(expected.getNoteCount(), 6);
+        }
+    }
+
+    @Test
+    public void testTimeline() throws IOException {
+        final Song song = new AbcParser(false).parse("src/test/resource/sample4.abc");
+        final Timeline timeline = new TimelineCompiler(false).compile(song);
+        assertEquals(timeline.getTitle(), "Triplets");
+        assertEquals(timeline.getVoiceNames(), Arrays.asList(AbcHelper.STANDARD_VOICE));
+        assertEquals(timeline.getNoteCount(), 32);
+        assertEquals(timeline.getLength(), 2784);
+        // Triplets need a multiple of 3 ticks per quarter note to be spread evenly.
+        assertEquals(timeline.getTicksPerQuarterNote(), 48);
+
+        // Quarter notes at a quarter note default length are 2 quarter notes long in ticks.
+        assertEquals(timeline.getNoteStart(1), 96);
+        assertEquals(timeline.getNoteDuration(1), 96);
+        assertEquals(timeline.getNotePitch(1), 62);
+
+        // Triplets are spread evenly over two beats.
+        assertEquals(timeline.getNoteStart(17), 1600);
+        assertEquals(timeline.getNoteDuration(17), 64);
+        assertEquals(timeline.getNotePitch(17), 62);
+
+        // 120 beats per minute of quarter notes.
+        assertEquals(timeline.getTempoCount(), 1);
+        assertEquals(timeline.getTempoTick(0), 0);
+        assertEquals(timeline.getTempoMicrosecondsPerQuarterNote(0), 250000);
+
+        // Compiling doesn't change the song, so it can be compiled again with the same result.
+        final MeasureEntity tuplet = song.getVoices().get(AbcHelper.STANDARD_VOICE).getMeasures().get(3).getEntities().get(0);
+        assertEquals(((Tuplet) tuplet).getEntities().get(0).getDurationMultiplier(), 1.0);
+        assertEquals(new TimelineCompiler(false).compile(song).getNoteDuration(17), 64);
+    }
+
+    @Test
+    public void testExactDurations() throws IOException {
+        final SongBuilder builder = new SongBuilder(false);
+        new AbcParser(false).parse(new BufferedReader(new StringReader("X:1\nT:Exact\nK:C\nC/3 C/3 C/3 (3CDE C3/5 C3/5 C3/5 C>D|\n")), "exact", builder);
+        final Song song = builder.getSong();
+        final List<MeasureEntity> entities = song.getVoices().get(AbcHelper.STANDARD_VOICE).getMeasures().get(0).getEntities();
+        assertEquals(entities.get(0).getMultiplier(), Fraction.of(1, 3));
+        assertEquals(entities.get(4).getMultiplier(), Fraction.of(3, 5));
+        assertEquals(entities.get(7).getMultiplier(), Fraction.of(3, 2));
+
+        // Thirds and fifths of an eighth note need 16 * 3 * 5 ticks per quarter note, each eighth note being one.
+        final Timeline timeline = new TimelineCompiler(false).compile(song);
+        assertEquals(timeline.getTicksPerQuarterNote(), 240);
+        final int[] starts = {0, 80, 160, 240, 400, 560, 720, 864, 1008, 1152, 1512};
+        for (int i = 0; i < starts.length; i++) {
+            assertEquals(timeline.getNoteStart(i), starts[i]);
+        }
+        // The triplet's notes don't drift, so it ends exactly two eighth notes after it started.
+        assertEquals(timeline.getNoteStart(5) + timeline.getNoteDuration(5), 720);
+        assertEquals(timeline.getLength(), 1632);
+
+        // Durations that would need more ticks than a midi file can hold are rounded instead.
+        final SongBuilder fine = new SongBuilder(false);
+        new AbcParser(false).parse(new BufferedReader(new StringReader("X:1\nT:Fine\nK:C\nC/32771 D|\n")), "fine", fine);
+        assertEquals(new TimelineCompiler(false).compile(fine.getSong()).getTicksPerQuarterNote(), 960);
+    }
+
+    @Test
+    public void testParallelCompile() throws IOException {
+        // 1500 measures, enough to be compiled in parallel, each line repeating its first two.
+        final StringBuilder text = new StringBuilder("X:1\nT:Parallel\nK:C\n");
+        for (int line = 0; line < 500; line++) {
+            text.append("|:^C C D E|C D E F:|G A B c||\n");
+        }
+        final SongBuilder builder = new SongBuilder(false);
+        new AbcParser(false).parse(new BufferedReader(new StringReader(text.toString())), "parallel", builder);
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        final Timeline timeline;
+        try {
+            timeline = new TimelineCompiler(false, pool).compile(builder.getSong());
+        } finally {
+            pool.shutdown();
+        }
+
+        // Each line plays 5 measures of 4 eighth notes, 16 ticks each.
+        assertEquals(timeline.getNoteCount(), 500 * 20);
+        assertEquals(timeline.getLength(), 500 * 320);
+        for (int line = 0; line < 500; line++) {
+            final int note = line * 20;
+            assertEquals(timeline.getNoteStart(note), line * 320);
+            // The sharp carries through the measure, and is played again with the repeat.
+            assertEquals(timeline.getNotePitch(note + 1), 61);
+            assertEquals(timeline.getNoteStart(note + 8), line * 320 + 128);
+            assertEquals(timeline.getNotePitch(note + 9), 61);
+            assertEquals(timeline.getNotePitch(note + 12), 60);
+        }
+
+        // The same as compiling one measure at a time.
+        final ForkJoinPool sequentialPool = new ForkJoinPool(1);
+        final Timeline sequential;
+        try {
+            sequential = new TimelineCompiler(false, sequentialPool).compile(builder.getSong());
+        } finally {
+            sequentialPool.shutdown();
+        }
+        for (int i = 0; i < timeline.getNoteCount(); i++) {
+            assertEquals(timeline.getNoteStart(i), sequential.getNoteStart(i));
+            assertEquals(timeline.getNotePitch(i), sequential.getNotePitch(i));
+        }
+    }
+
+    @Test
+    public void testPitchTable() throws IOException {
+        final PitchTable dMajor = PitchTable.forKey(Key.D_MAJOR);
+        assertEquals(dMajor.getPitch(NoteEnum.F, null, 0), 66);
+        assertEquals(dMajor.getPitch(NoteEnum.F, Accidental.NATURAL, 0), 65);
+        assertEquals(dMajor.getPitch(NoteEnum.C, Accidental.DOUBLE_FLAT, 1), 70);
+        assertEquals(PitchTable.forKey(Key.F_MAJOR).getPitch(NoteEnum.B, null, -1), 58);
+        assertEquals(new MeasureKey(Key.E_FLAT_MAJOR).getAccidental(NoteEnum.A), Accidental.FLAT);
+
+        // Accidentals carry through the rest of their measure and are forgotten at the bar line.
+        final SongBuilder builder = new SongBuilder(false);
+        new AbcParser(false).parse(new BufferedReader(new StringReader("X:1\nT:Pitch\nK:D\n^^F F =F F|F c|\n")), "pitch", builder);
+        final Timeline timeline = new TimelineCompiler(false).compile(builder.getSong());
+        final int[] pitches = new int[timeline.getNoteCount()];
+        for (int i = 0; i < pitches.length; i++) {
+            pitches[i] = timeline.getNotePitch(i);
+        }
+        assertTrue(Arrays.equals(pitches, new int[] {67, 67, 65, 65, 66, 73}));
+    }
+
+    @Test
+    public void testPlayAsync() throws Exception {
+        // A sequencer that isn't connected to a synthesizer still plays in real time and reports the end of the song.
+        final List<Sequencer> sequencers = new CopyOnWriteArrayList<>();
+        final MidiPlayer player = new MidiPlayer(null, false) {
+            @Override
+            protected Sequencer getSequencer() throws MidiUnavailableException {
+                final Sequencer sequencer = MidiSystem.getSequencer(false);
+                sequencers.add(sequencer);
+                return sequencer;
+            }
+        };
+        final SongBuilder builder = new SongBuilder(false);
+        new AbcParser(false).parse(new BufferedReader(new StringReader("X:1\nT:Short\nQ:600\nK:C\nC D E F|\n")), "short", builder);
+        final Timeline timeline = new TimelineCompiler(false).compile(builder.getSong());
+
+        // Several songs play at once on sequencers of their own, each finishing on its own.
+        final List<CompletableFuture<Void>> playing = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            playing.add(player.playAsync(timeline));
+        }
+        assertEquals(sequencers.size(), 6);
+        CompletableFuture.allOf(playing.toArray(new CompletableFuture<?>[0])).get(60, TimeUnit.SECONDS);
+        assertTrue(playing.stream().allMatch(CompletableFuture::isDone));
+
+        // Each sequencer is closed once its song has ended.
+        assertTrue(sequencers.stream().noneMatch(Sequencer::isOpen));
+
+        // Waiting for a song still works, including one without any notes.
+        player.play(timeline);
+        final SongBuilder empty = new SongBuilder(false);
+        new AbcParser(false).parse(new BufferedReader(new StringReader("X:1\nT:Empty\nK:C\n")), "empty", empty);
+        player.play(empty.getSong());
+        assertEquals(sequencers.size(), 8);
+        assertTrue(sequencers.stream().noneMatch(Sequencer::isOpen));
+    }
+
+    @Test
+    public void testSequencerPool() throws Exception {
+        final SongBuilder builder = new SongBuilder(false);
+        new AbcParser(false).parse(new BufferedReader(new StringReader("X:1\nT:Short\nQ:600\nK:C\nC D E F|\n")), "short", builder);
+        final Timeline timeline = new TimelineCompiler(false).compile(builder.getSong());
+
+        try (SequencerPool pool = new SequencerPool(2, false)) {
+            assertEquals(pool.getIdleCount(), 2);
+            final MidiPlayer player = new MidiPlayer(pool);
+
+            // One more song than there are sequencers opens another, which joins the pool once it's done.
+            final List<CompletableFuture<Void>> playing = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                playing.add(player.playAsync(timeline));
+            }
+            assertEquals(pool.getIdleCount(), 0);
+            CompletableFuture.allOf(playing.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+            assertEquals(pool.getIdleCount(), 3);
+
+            // Returned sequencers play the next song, then go back to the pool again.
+            final CompletableFuture<Void> next = player.playAsync(timeline);
+            next.get(10, TimeUnit.SECONDS);
+            assertTrue(next.isDone() && !next.isCompletedExceptionally());
+            assertEquals(pool.getIdleCount(), 3);
+
+            // Each is left open, with its song cleared.
+            final List<Sequencer> sequencers = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                sequencers.add(pool.acquire());
+            }
+            assertEquals(pool.getIdleCount(), 0);
+            for (Sequencer sequencer : sequencers) {
+                assertTrue(sequencer.isOpen());
+                assertNull(sequencer.getSequence());
+                pool.release(sequencer);
+            }
+            assertEquals(pool.getIdleCount(), 3);
+        }
+    }
+
+    @Test
+    public void testStreamingPlayer() throws Exception {
+        // A clock that moves straight on to when each message is due, so the times can be checked without waiting.
+        final AtomicLong now = new AtomicLong();
+        final StreamingPlayer.Clock clock = new StreamingPlayer.Clock() {
+            @Override
+            public long nanoTime() {
+                return now.get();
+            }
+
+            @Override
+            public void waitNanos(final long nanos) {
+                now.addAndGet(nanos);
+            }
+        };
+
+        // Stands in for a synthesizer, keeping each message and when it was sent.
+        final List<ShortMessage> messages = new CopyOnWriteArrayList<>();
+        final List<Long> times = new CopyOnWriteArrayList<>();
+        final Receiver receiver = new Receiver() {
+            @Override
+            public void send(final MidiMessage message, final long timeStamp) {
+                times.add(now.get());
+                messages.add((ShortMessage) message);
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        StreamingPlayer player = new StreamingPlayer(receiver, false, clock);
+
+        final SongBuilder builder = new SongBuilder(false);
+        new AbcParser(false).parse(new BufferedReader(new StringReader("X:1\nT:Short\nQ:600\nK:C\nC D E F|\n")), "short", builder);
+        final StreamingPlayer.Jitter jitter = player.stream(builder.getSong()).get(10, TimeUnit.SECONDS);
+        assertEquals(jitter.getMessages(), 8);
+
+        // Each note ends as the next starts, 100ms apart.
+        final int[] pitches = {60, 60, 62, 62, 64, 64, 65, 65};
+        assertEquals(messages.size(), pitches.length);
+        for (int i = 0; i < pitches.length; i++) {
+            assertEquals(messages.get(i).getCommand(), 0 == i % 2 ? ShortMessage.NOTE_ON : ShortMessage.NOTE_OFF);
+            assertEquals(messages.get(i).getData1(), pitches[i]);
+            assertEquals(times.get(i).longValue(), TimeUnit.MILLISECONDS.toNanos((i + 1) / 2 * 100));
+        }
+
+        // With time standing still, the first note of a long song is sent and nothing after it comes due.
+        player = new StreamingPlayer(receiver, false, new StreamingPlayer.Clock() {
+            @Override
+            public long nanoTime() {
+                return 0;
+            }
+
+            @Override
+            public void waitNanos(final long nanos) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+            }
+        });
+        final StringBuilder text = new StringBuilder("X:1\nT:Long\nQ:600\nK:C\n");
+        for (int i = 0; i < 5000; i++) {
+            text.append("C D E F|G A B c|\n");
+        }
+        final SongBuilder longBuilder = new SongBuilder(false);
+        new AbcParser(false).parse(new BufferedReader(new StringReader(text.toString())), "long", longBuilder);
+        messages.clear();
+        final CompletableFuture<Void> playing = player.playAsync(longBuilder.getSong());
+        awaitSize(messages, 1);
+        assertEquals(messages.get(0).getCommand(), ShortMessage.NOTE_ON);
+        assertEquals(messages.get(0).getData1(), 60);
+
+        // Cancelling stops the song and turns off the note still playing, after which nothing more is sent.
+        playing.cancel(false);
+        awaitSize(messages, 2);
+        assertEquals(messages.get(1).getCommand(), ShortMessage.CONTROL_CHANGE);
+        assertEquals(messages.size(), 2);
+    }
+
+    // Waits for another thread to add to the list, for up to 10 seconds.
+    private static void awaitSize(final List<?> list, final int size) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (list.size() < size && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(list.size() >= size);
+    }
+
+    @Test
+    public void testRender() throws IOException, InvalidMidiDataException {
+        final Song song = new AbcParser(false).parse("src/test/resource/sample4.abc");
+        final byte[] bytes = new MidiRenderer().render(song);
+        assertEquals(MidiSystem.getMidiFileFormat(new ByteArrayInputStream(bytes)).getType(), MidiRenderer.SINGLE_TRACK);
+
+        // A note on and off for each of the 32 notes, the tempo, and the end of the track.
+        final Sequence sequence = MidiSystem.getSequence(new ByteArrayInputStream(bytes));
+        assertEquals(sequence.getResolution(), 48);
+        assertEquals(sequence.getTracks().length, 1);
+        assertEquals(sequence.getTracks()[0].size(), 66);
+        assertEquals(sequence.getTickLength(), 2784L);
+
+        final byte[] multiTrack = new MidiRenderer(MidiRenderer.MULTI_TRACK).render(song);
+        assertEquals(MidiSystem.getMidiFileFormat(new ByteArrayInputStream(multiTrack)).getType(), MidiRenderer.MULTI_TRACK);
+    }
+
+    @Test
+    public void testSmfEncoder() throws IOException, InvalidMidiDataException {
+        final SmfEncoder encoder = new SmfEncoder(16);
+        encoder.begin(0, 16).beginTrack();
+        encoder.tempo(0, 500000);
+        encoder.noteOn(0, 0, 60, 100);
+        encoder.noteOff(200, 0, 60);
+        encoder.noteOn(200, 0, 62, 100);
+        encoder.endTrack();
+
+        // The first note on writes its status, the rest run on it, and the 200 tick delta takes two bytes.
+        final byte[] track = Arrays.copyOfRange(encoder.toByteArray(), 22, 44);
+        assertTrue(Arrays.equals(track, new byte[] {0, (byte) 0xFF, 0x51, 3, 0x07, (byte) 0xA1, 0x20,
+                0, (byte) 0x90, 60, 100, (byte) 0x81, 0x48, 60, 0, 0, 62, 100, 0, (byte) 0xFF, 0x2F, 0}));
+
+        // Events have to arrive in order.
+        encoder.begin(0, 16).beginTrack();
+        encoder.noteOn(10, 0, 60, 100);
+        try {
+            encoder.noteOff(5, 0, 60);
+            assertTrue(false);
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("before the previous event"));
+        }
+
+        // The largest delta fits in four bytes, and anything further is refused rather than cut short.
+        encoder.begin(0, 16).beginTrack();
+        encoder.noteOn(0x0FFFFFFF, 0, 60, 100);
+        try {
+            encoder.noteOff(0x0FFFFFFF + 0x10000000, 0, 60);
+            assertTrue(false);
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("too far after the previous event"));
+        }
+        encoder.endTrack();
+        assertTrue(Arrays.equals(Arrays.copyOfRange(encoder.toByteArray(), 22, 29),
+                new byte[] {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x7F, (byte) 0x90, 60, 100}));
+
+        // The same song is smaller than when written through a Sequence.
+        final Timeline timeline = new TimelineCompiler(false).compile(new AbcParser(false).parse("src/test/resource/paddy.abc"));
+        final ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        new MidiRenderer().render(timeline, encoded);
+        final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        MidiSystem.write(MidiHelper.toSequence(timeline), MidiRenderer.SINGLE_TRACK, written);
+        assertTrue(encoded.size() < written.size());
+        assertEquals(MidiSystem.getSequence(new ByteArrayInputStream(encoded.toByteArray())).getTickLength(),
+                MidiSystem.getSequence(new ByteArrayInputStream(written.toByteArray())).getTickLength());
+    }
+
+    @Test
+    public void testMultiTrack() throws IOException, InvalidMidiDataException {
+        final Timeline timeline = new TimelineCompiler(false).compile(new AbcParser(false).parse("src/test/resource/invention.abc"));
+        assertEquals(timeline.getVoiceNames().size(), 2);
+        assertEquals(timeline.getVoiceNoteCount(0) + timeline.getVoiceNoteCount(1), timeline.getNoteCount());
+        assertEquals(timeline.getNoteVoice(timeline.getVoiceNote(1, 0)), 1);
+
+        // A conductor track with the tempo, then each voice's notes and the end of its track.
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new MidiRenderer(MidiRenderer.MULTI_TRACK).render(timeline, out);
+        final Sequence sequence = MidiSystem.getSequence(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(sequence.getTracks().length, 3);
+        assertEquals(sequence.getTracks()[0].size(), timeline.getTempoCount() + 1);
+        assertEquals(sequence.getTracks()[1].size(), timeline.getVoiceNoteCount(0) * 2 + 1);
+        assertEquals(sequence.getTracks()[2].size(), timeline.getVoiceNoteCount(1) * 2 + 1);
+        assertEquals(sequence.getTickLength(), (long) timeline.getLength());
+
+        final Sequence built = MidiHelper.toMultiTrackSequence(timeline);
+        assertEquals(built.getTracks().length, 3);
+        assertEquals(built.getTracks()[2].size(), sequence.getTracks()[2].size());
+    }
+
+    @Test
+    public void testAudioRenderer() throws Exception {
+        final SongBuilder builder = new SongBuilder(false);
+        new AbcParser(false).parse(new BufferedReader(new StringReader("X:1\nT:Short\nQ:600\nK:C\nC D E F|\n")), "short", builder);
+        final Timeline timeline = new TimelineCompiler(false).compile(builder.getSong());
+        // 400ms of notes and 500ms for the last one to ring out.
+        assertEquals(AudioRenderer.getFrameLength(timeline), 39690L);
+
+        // Two synthesizers render three songs at once.
+        final ExecutorService executor = Executors.newFixedThreadPool(3);
+        try (AudioRenderer renderer = new AudioRenderer(2)) {
+            final List<Future<byte[]>> renders = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                renders.add(executor.submit(() -> {
+                    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    renderer.render(timeline, out);
+                    return out.toByteArray();
+                }));
+            }
+            for (Future<byte[]> render : renders) {
+                final byte[] wav = render.get(30, TimeUnit.SECONDS);
+                assertEquals(new String(wav, 0, 4, StandardCharsets.US_ASCII), "RIFF");
+                assertEquals(new String(wav, 8, 4, StandardCharsets.US_ASCII), "WAVE");
+                final AudioInputStream audio = AudioSystem.getAudioInputStream(new ByteArrayInputStream(wav));
+                assertTrue(audio.getFormat().matches(AudioRenderer.FORMAT));
+                assertEquals(audio.getFrameLength(), 39690L);
+
+                // The notes are heard from the start, and have mostly died away by the end.
+                final byte[] samples = new byte[(int) audio.getFrameLength() * audio.getFormat().getFrameSize()];
+                assertEquals(audio.read(samples), samples.length);
+                final int peak = getPeak(samples, 0, 4410 * 4);
+                assertTrue(peak > 1000);
+                assertTrue(getPeak(samples, samples.length - 4410 * 4, samples.length) < peak / 4);
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        // A render that fails part way leaves none of its notes behind for the next song on the same synthesizer.
+        final SongBuilder rests = new SongBuilder(false);
+        new AbcParser(false).parse(new BufferedReader(new StringReader("X:1\nT:Rests\nQ:600\nK:C\nz z z z|\n")), "rests", rests);
+        try (AudioRenderer renderer = new AudioRenderer(1)) {
+            try {
+                renderer.render(timeline, new OutputStream() {
+                    private int size;
+
+                    @Override
+                    public void write(final int b) throws IOException {
+                        write(new byte[] {(byte) b}, 0, 1);
+                    }
+
+                    @Override
+                    public void write(final byte[] bytes, final int offset, final int length) throws IOException {
+                        // Fails a tenth of a second in, once the notes after it have been sent.
+                        size += length;
+                        if (size > 4410 * 4) {
+                            throw new IOException("Disk full");
+                        }
+                    }
+                });
+                assertTrue(false);
+            } catch (IOException e) {
+                assertEquals(e.getMessage(), "Disk full");
+            }
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            renderer.render(rests.getSong(), out);
+            final byte[] wav = out.toByteArray();
+            assertTrue(getPeak(wav, 44, wav.length) < 100);
+        }
+    }
+
+    // The loudest 16 bit little endian sample between the offsets.
+    private static int getPeak(final byte[] samples, final int from, final int to) {
+        int peak = 0;
+        for (int i = from; i < to; i += 2) {
+            peak = Math.max(peak, Math.abs((short) ((samples[i] & 0xFF) | (samples[i + 1] << 8))));
+        }
+        return peak;
+    }
+
+    @Test
+    public void testConcurrentRender() throws Exception {
+        final List<Song> songs = new ArrayList<>();
+        for (String name : Arrays.asList("sample3", "sample4", "scale", "paddy", "invention", "fur_elise")) {
+            songs.add(new AbcParser(false).parse("src/test/resource/" + name + ".abc"));
+        }
+        final MidiRenderer single = new MidiRenderer();
+        final MidiRenderer multi = new MidiRenderer(MidiRenderer.MULTI_TRACK);
+        final List<byte[]> expected = new ArrayList<>();
+        for (Song song : songs) {
+            expected.add(single.render(song));
+            expected.add(multi.render(song));
+        }
+
+        // The same two renderers serve every thread, and each file matches the one rendered on its own.
+        final ExecutorService executor = Executors.newFixedThreadPool(16);
+        try {
+            final List<Future<Boolean>> renders = new ArrayList<>();
+            for (int i = 0; i < 400; i++) {
+                final int file = i % expected.size();
+                final MidiRenderer renderer = 0 == file % 2 ? single : multi;
+                renders.add(executor.submit(() -> {
+                    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    renderer.render(songs.get(file / 2), out);
+                    return Arrays.equals(out.toByteArray(), expected.get(file));
+                }));
+            }
+            for (Future<Boolean> render : renders) {
+                assertTrue(render.get(60, TimeUnit.SECONDS));
+            }
+
+            // One player plays songs started from many threads at once.
+            final SongBuilder builder = new SongBuilder(false);
+            new AbcParser(false).parse(new BufferedReader(new StringReader("X:1\nT:Short\nQ:600\nK:C\nC D E F|\n")), "short", builder);
+            final Timeline timeline = new TimelineCompiler(false).compile(builder.getSong());
+            try (SequencerPool pool = new SequencerPool(4, false)) {
+                final MidiPlayer player = new MidiPlayer(pool);
+                final List<Future<CompletableFuture<Void>>> plays = new ArrayList<>();
+                for (int i = 0; i < 16; i++) {
+                    plays.add(executor.submit(() -> player.playAsync(timeline)));
+                }
+                for (Future<CompletableFuture<Void>> play : plays) {
+                    play.get(10, TimeUnit.SECONDS).get(10, TimeUnit.SECONDS);
+                }
+                assertEquals(pool.getIdleCount(), 16);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testMergeEvents() throws IOException {
+        final List<Long> merged = new ArrayList<>();
+        TimelineEvents.merge(new long[][] {{1, 4, 9}, {}, {2, 3, 10, 11}, {5}}, merged::add);
+        assertEquals(merged, Arrays.asList(1L, 2L, 3L, 4L, 5L, 9L, 10L, 11L));
+
+        // Every tempo change and note from both voices comes out once, in tick order.
+        final Timeline timeline = new TimelineCompiler(false).compile(new AbcParser(false).parse("src/test/resource/invention.abc"));
+        final List<Long> events = new ArrayList<>();
+        TimelineEvents.forEachEvent(timeline, events::add);
+        assertEquals(events.size(), timeline.getTempoCount() + timeline.getNoteCount() * 2);
+        assertEquals(TimelineEvents.getKind(events.get(0)), TimelineEvents.TEMPO);
+        for (int i = 1; i < events.size(); i++) {
+            assertTrue(events.get(i - 1) < events.get(i));
+        }
+        assertEquals(TimelineEvents.getTick(events.get(events.size() - 1)), timeline.getLength());
+    }
+
+    @Test
+    public void testListener() throws IOException {
+        final List<String> events = new ArrayList<>();
+        final AbcParser parser = new AbcParser();
+        parser.parse("src/test/resource/scale.abc", new AbcListener() {
+            @Override
+            public void onHeader(final AbcHeader header, final String value) {
+                events.add(header + value);
+            }
+            @Override
+            public void onVoice(final String voiceName) {
+                events.add("voice " + voiceName);
+            }
+            @Override
+            public void onMeasureStart(final int index, final BarLineEnum startLine, final MeasureContext context) {
+                events.add("start " + index + " " + startLine + " " + context.getTempo());
+            }
+            @Override
+            public void onNote(final Note note) {
+                events.add(note.getNoteEnum().toString());
+            }
+            @Override
+            public void onMeasureEnd(final BarLineEnum endLine) {
+                events.add("end " + endLine);
+            }
+            @Override
+            public void onEnd() {
+                events.add("done");
+            }
+        });
+
+        assertEquals(events, Arrays.asList("X:1", "T:Simple scale", "C:Unknown", "M:4/4", "L:1/4", "Q:120", "K:C", "voice Default",
+                "start 1 START 120", "C", "D", "E", "F", "end STANDARD",
+                "start 2 STANDARD 120", "G", "A", "B", "C", "end STANDARD",
+                "start 3 STANDARD 120", "C", "B", "A", "G", "F", "E", "D", "C", "end STANDARD",
+                "done"));
+    }
+
+    @Test
+    public void testSongbook() throws IOException {
+        final List<ParsedTune> tunes = new SongbookParser().parse("src/test/resource/songbook.abc");
+        assertEquals(tunes.size(), 5);
+        assertEquals(tunes.stream().map(t -> t.getPosition()).collect(toList()), Arrays.asList(1, 2, 3, 4, 5));
+
+        // Tunes come back in file order with the same content as when parsed on their own.
+        assertEquals(tunes.get(0).getSong().getTitle(), "Simple scale");
+        assertEquals(tunes.get(0).getLineNumber(), 3);
+        assertEquals(tunes.get(1).getSong().getTitle(), "Paddy O'Rafferty");
+        assertEquals(tunes.get(1).getSong().getVoices().values().stream().findFirst().get().getMeasures().size(), 26);
+        assertEquals(tunes.get(2).getSong().getTitle(), "Chord");
+        assertEquals(tunes.get(4).getSong().getTitle(), "Triplets");
+        assertEquals(tunes.get(4).getSong().getVoices().values().stream().findFirst().get().getMeasures().size(), 6);
+
+        // The invalid tune is reported without stopping the rest.
+        assertTrue(!tunes.get(3).isValid());
+        assertTrue(null == tunes.get(3).getSong());
+        assertEquals(tunes.get(3).getError().getMessage(), "Invalid Key.");
+        assertEquals(new SongbookParser().parseSongs("src/test/resource/songbook.abc").size(), 4);
+    }
+
+    @Test
+    public void testHeaders() throws IOException {
+        final AbcParser parser = new AbcParser(false);
+        List<TuneHeader> tunes = parser.parseHeaders("src/test/resource/songbook.abc");
+        assertEquals(tunes.stream().map(TuneHeader::getTitle).collect(toList()),
+                Arrays.asList("Simple scale", "Paddy O'Rafferty", "Chord", "Broken", "Triplets"));
+        assertEquals(tunes.stream().map(TuneHeader::getLineNumber).collect(toList()), Arrays.asList(3, 13, 26, 31, 36));
+
+        TuneHeader tune = tunes.get(1);
+        assertEquals(tune.getIndex().intValue(), 1);
+        assertEquals(tune.getComposer(), "Trad.");
+        assertEquals(tune.getKey(), Key.D_MAJOR);
+        assertEquals(tune.getMeter(), new Meter(6, 8));
+        assertEquals(tune.getTempo().intValue(), 200);
+        assertEquals(tune.getNoteDuration(), AbcHelper.STANDARD_NOTE_DURATION);
+        assertEquals(tune.getVoiceNames(), Arrays.asList(AbcHelper.STANDARD_VOICE));
+
+        // Invalid headers are reported the same way as a full parse, without stopping the rest.
+        assertTrue(!tunes.get(3).isValid());
+        assertEquals(tunes.get(3).getError().getMessage(), "Invalid Key.");
+        assertTrue(tunes.get(4).isValid());
+
+        tunes = parser.parseHeaders("src/test/resource/prelude.abc");
+        assertEquals(tunes.size(), 1);
+        tune = tunes.get(0);
+        assertEquals(tune.getTitle(), "Prelude BWV 846 no. 1");
+        assertEquals(tune.getTempo().intValue(), 280);
+        assertEquals(tune.getVoiceNames(), Arrays.asList("1", "2", "3"));
+    }
+
+    @Test
+    public void testMappedSongbook() throws IOException {
+        // Work on a copy so the index sidecar isn't written next to the test resources.
+        final Path songbook = Files.createTempFile("songbook", ".abc");
+        final Path sidecar = Paths.get(songbook + SongbookIndex.SIDECAR_EXTENSION);
+        try {
+            Files.copy(Paths.get("src/test/resource/songbook.abc"), songbook, StandardCopyOption.REPLACE_EXISTING);
+            MappedSongbook book = MappedSongbook.open(songbook.toString());
+            assertTrue(Files.exists(sidecar));
+            assertEquals(book.getTunes().stream().map(TuneEntry::getTitle).collect(toList()),
+                    Arrays.asList("Simple scale", "Paddy O'Rafferty", "Chord", "Broken", "Triplets"));
+            assertEquals(book.getTunes().get(1).getKey(), "D");
+            assertEquals(book.getTunes().get(1).getMeter(), "6/8");
+            assertEquals(book.parse(2).getVoices().values().stream().findFirst().get().getMeasures().size(), 26);
+
+            // A second open reads the saved index.
+            book = MappedSongbook.open(songbook.toString());
+            assertEquals(book.getTunes().size(), 5);
+            assertEquals(book.parse(5).getTitle(), "Triplets");
+
+            // Appending a tune only rescans the end of the file.
+            Files.write(songbook, Arrays.asList("", "X:6", "T:Appended", "K:C", "C D E F|"), StandardOpenOption.APPEND);
+            Files.setLastModifiedTime(songbook, FileTime.fromMillis(Files.getLastModifiedTime(songbook).toMillis() + 1000));
+            book = MappedSongbook.open(songbook.toString());
+            assertEquals(book.getTunes().size(), 6);
+            assertEquals(book.getTunes().get(5).getTitle(), "Appended");
+            assertEquals(book.parse(6).getTitle(), "Appended");
+            assertEquals(book.parse(5).getTitle(), "Triplets");
+        } finally {
+            Files.deleteIfExists(sidecar);
+            Files.deleteIfExists(songbook);
+        }
+    }
+
+    @Test
+    public void testInterner() throws IOException {
+        final Interner interner = new Interner();
+        final AbcParser parser = new AbcParser(false, interner);
+        final Song first = parser.parse("src/test/resource/paddy.abc");
+        final Song second = parser.parse("src/test/resource/paddy.abc");
+        final List<Measure> firstMeasures = first.getVoices().values().iterator().next().getMeasures();
+        final List<Measure> secondMeasures = second.getVoices().values().iterator().next().getMeasures();
+
+        // Repeated measures share one list of entities, within a song and across songs parsed together.
+        assertTrue(firstMeasures.get(0).getEntities() == firstMeasures.get(2).getEntities());
+        assertTrue(firstMeasures.get(0).getEntities() == secondMeasures.get(0).getEntities());
+        assertTrue(firstMeasures.get(0).getEntities().get(1) == firstMeasures.get(0).getEntities().get(2));
+        assertTrue(firstMeasures.get(0).getContext().getMeter() == secondMeasures.get(0).getContext().getMeter());
+        final int size = interner.size();
+        parser.parse("src/test/resource/paddy.abc");
+        assertEquals(interner.size(), size);
+
+        // Without an interner every measure gets its own.
+        final Song unshared = new AbcParser(false).parse("src/test/resource/paddy.abc");
+        final List<Measure> unsharedMeasures = unshared.getVoices().values().iterator().next().getMeasures();
+        assertTrue(unsharedMeasures.get(0).getEntities() != unsharedMeasures.get(2).getEntities());
+        assertEquals(unsharedMeasures.get(0).getEntities(), unsharedMeasures.get(2).getEntities());
+
+        // Values are compared by what they hold, and keys are shared without an interner.
+        assertEquals(new Meter(6, 8), new Meter(6, 8));
+        assertEquals(new Meter(6, 8).hashCode(), new Meter(6, 8).hashCode());
+        assertTrue(MeasureKey.of(Key.D_MAJOR) == MeasureKey.of(Key.D_MAJOR));
+        assertEquals(new MeasureKey(Key.D_MAJOR), MeasureKey.of(Key.D_MAJOR));
+
+        // Sharing changes nothing that is played.
+        assertSameTimeline(new TimelineCompiler(false).compile(unshared), new TimelineCompiler(false).compile(first));
+    }
+
+    @Test
+    public void testSongStore() throws IOException {
+        final SongWriter writer = new SongWriter();
+        final SongReader reader = new SongReader();
+        final List<Path> files;
+        try (Stream<Path> listed = Files.list(Paths.get("src/test/resource"))) {
+            files = listed.filter(f -> f.toString().endsWith(".abc")).sorted().collect(toList());
+        }
+        assertEquals(files.size(), 12);
+        long abcSize = 0;
+        long size = 0;
+        Song last = null;
+        for (Path file : files) {
+            abcSize += Files.size(file);
+            for (Song song : new SongbookParser().parseSongs(file.toString())) {
+                final byte[] bytes = writer.toBytes(song);
+                size += bytes.length;
+
+                // Everything parsed comes back, down to the empty measure after a closing bar line.
+                final Song loaded = reader.read(bytes);
+                assertEquals(loaded.getIndex(), song.getIndex());
+                assertEquals(loaded.getTitle(), song.getTitle());
+                assertEquals(loaded.getComposer(), song.getComposer());
+                assertEquals(new ArrayList<>(loaded.getVoices().keySet()), new ArrayList<>(song.getVoices().keySet()));
+                for (String voiceName : song.getVoices().keySet()) {
+                    final List<Measure> measures = song.getVoices().get(voiceName).getMeasures();
+                    final List<Measure> loadedMeasures = loaded.getVoices().get(voiceName).getMeasures();
+                    assertEquals(loadedMeasures.size(), measures.size());
+                    for (int i = 0; i < measures.size(); i++) {
+                        assertSameMeasure(loadedMeasures.get(i), measures.get(i));
+                        assertSameMeasure(loadedMeasures.get(i).getNextMeasure(), measures.get(i).getNextMeasure());
+                    }
+                }
+                assertSameTimeline(new TimelineCompiler(false).compile(song), new TimelineCompiler(false).compile(loaded));
+
+                // Compact voices are written the same as the voices they came from.
+                assertTrue(Arrays.equals(writer.toBytes(CompactVoice.compact(song)), bytes));
+                last = song;
+            }
+        }
+        // Only the shortest samples are longer than the abc, since every file starts with its own headers.
+        assertTrue(size < abcSize);
+
+        // Songs can be written to and read from streams and files as well.
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.write(last, out);
+        assertEquals(reader.read(new ByteArrayInputStream(out.toByteArray())).getTitle(), last.getTitle());
+        final Path file = Files.createTempFile("song", ".abcs");
+        try {
+            writer.write(last, file);
+            assertEquals(reader.read(file).getTitle(), last.getTitle());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+
+        // Anything else is refused rather than read as a song.
+        final byte[] bytes = out.toByteArray();
+        final byte[] newer = bytes.clone();
+        newer[4] = 2;
+        final List<byte[]> invalid = Arrays.asList("X:1\nK:C\n".getBytes(), Arrays.copyOf(bytes, bytes.length - 1), newer);
+        final List<String> messages = new ArrayList<>();
+        for (byte[] contents : invalid) {
+            try {
+                reader.read(contents);
+                assertTrue(false);
+            } catch (IOException e) {
+                messages.add(e.getMessage());
+            }
+        }
+        assertEquals(messages, Arrays.asList("Not a song file.", "Song file is cut short.", "Unsupported song file version 2."));
+    }
+
+    private static void assertSameTimeline(final Timeline expected, final Timeline timeline) {
+        assertEquals(timeline.getNoteCount(), expected.getNoteCount());
+        assertEquals(timeline.getLength(), expected.getLength());
+        assertEquals(timeline.getTempoCount(), expected.getTempoCount());
+        for (int i = 0; i < expected.getNoteCount(); i++) {
+            assertEquals(timeline.getNoteVoice(i), expected.getNoteVoice(i));
+            assertEquals(timeline.getNoteStart(i), expected.getNoteStart(i));
+            assertEquals(timeline.getNoteDuration(i), expected.getNoteDuration(i));
+            assertEquals(timeline.getNotePitch(i), expected.getNotePitch(i));
+        }
+    }
+
+    private static void assertSameMeasure(final Measure loaded, final Measure measure) {
+        if (null == measure) {
+            assertNull(loaded);
+            return;
+        }
+        assertEquals(loaded.getIndex(), measure.getIndex());
+        assertEquals(loaded.getVoiceName(), measure.getVoiceName());
+        assertEquals(loaded.getNoteLength(), measure.getNoteLength());
+        assertEquals(loaded.getMeter(), measure.getMeter());
+        assertEquals(loaded.getTempo(), measure.getTempo());
+        assertEquals(loaded.getKey(), measure.getKey());
+        assertEquals(loaded.getContext(), measure.getContext());
+        assertEquals(loaded.getStartLine(), measure.getStartLine());
+        assertEquals(loaded.getEndLine(), measure.getEndLine());
+        assertEquals(loaded.getAlternateEnding(), measure.getAlternateEnding());
+        assertEquals(loaded.getEntities(), measure.getEntities());
+    }
+
     @Test
     public void testPrelude() throws IOException, InvalidMidiDataException, MidiUnavailableException {
         final AbcParser parser = new AbcParser();
@@ -293,7 +1276,7 @@ public class AbcParserTest {
         assertTrue(null != voice.getMeasures() && !voice.getMeasures().isEmpty() && voice.getMeasures().size() == 26);
 
         final Measure measure = voice.getMeasures().get(0);
-        assertEquals(measure.getMeter(), new Meter().withBeatsPerMeasure(6).withDuration(8));
+        assertEquals(measure.getMeter(), new Meter(6, 8));
         assertEquals(measure.getKey().getKey(), Key.D_MAJOR);
         assertEquals(measure.getTempo().intValue(), 200);
         assertEquals(measure.getNoteDuration(), AbcHelper.STANDARD_NOTE_DURATION);
@@ -371,7 +1354,7 @@ public class AbcParserTest {
         assertTrue(null != voice.getMeasures() && !voice.getMeasures().isEmpty() && voice.getMeasures().size() == 106);
 
         final Measure measure = voice.getMeasures().get(0);
-        assertEquals(measure.getMeter(), new Meter().withBeatsPerMeasure(3).withDuration(8));
+        assertEquals(measure.getMeter(), new Meter(3, 8));
         assertEquals(measure.getKey().getKey(), Key.A_MINOR);
         assertEquals(measure.getTempo().intValue(), 400);
         assertEquals(measure.getNoteDuration(), 0.0625);
@@ -397,7 +1380,7 @@ public class AbcParserTest {
         assertTrue(null != voice.getMeasures() && !voice.getMeasures().isEmpty() && voice.getMeasures().size() == 151);
 
         final Measure measure = voice.getMeasures().get(0);
-        assertEquals(measure.getMeter(), new Meter().withBeatsPerMeasure(3).withDuration(4));
+        assertEquals(measure.getMeter(), new Meter(3, 4));
         assertEquals(measure.getKey().getKey(), Key.F_MINOR);
         assertEquals(measure.getTempo().intValue(), 120);
         assertEquals(measure.getNoteDuration(), 0.25);